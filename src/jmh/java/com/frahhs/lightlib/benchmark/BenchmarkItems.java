@@ -0,0 +1,54 @@
+package com.frahhs.lightlib.benchmark;
+
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.Arrays;
+
+/**
+ * Sample inventories shared by the benchmarks.
+ */
+class BenchmarkItems {
+    /**
+     * Builds a player inventory of plain stacks, named and enchanted tools, repeated stacks and empty slots.
+     *
+     * @param slots The number of slots.
+     * @return The inventory contents.
+     */
+    static ItemStack[] inventory(int slots) {
+        ItemStack[] items = new ItemStack[slots];
+
+        for (int i = 0; i < slots; i++) {
+            switch (i % 4) {
+                case 0:
+                    items[i] = new ItemStack(Material.COBBLESTONE, 1 + i % 64);
+                    break;
+                case 1:
+                    items[i] = named(Material.DIAMOND_SWORD, "Sword " + i);
+                    break;
+                case 2:
+                    // Same stack in many slots, as in a chest of a Light item
+                    items[i] = named(Material.IRON_PICKAXE, "Light Pickaxe");
+                    break;
+                default:
+                    break;
+            }
+        }
+        return items;
+    }
+
+    private static ItemStack named(Material material, String name) {
+        ItemStack item = new ItemStack(material, 1);
+        ItemMeta meta = item.getItemMeta();
+        assert meta != null;
+
+        meta.setDisplayName(name);
+        meta.setLore(Arrays.asList("First lore line", "Second lore line"));
+        meta.setCustomModelData(1001);
+        item.setItemMeta(meta);
+        item.addUnsafeEnchantment(Enchantment.DURABILITY, 3);
+        return item;
+    }
+}
@@ -0,0 +1,85 @@
+package com.frahhs.lightlib.benchmark;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.LightItem;
+import org.bukkit.Material;
+import org.bukkit.inventory.ShapedRecipe;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LightPlugin loaded on the mocked server by the benchmarks, with a plain and a unique LightItem.
+ */
+public class BenchmarkPlugin extends LightPlugin {
+    @Override
+    public void onLightLoad() {
+
+    }
+
+    @Override
+    public void onLightEnabled() {
+        LightPlugin.getItemsManager().registerItems(Arrays.asList(new PlainItem(), new UniqueItem()), this);
+    }
+
+    @Override
+    public void onLightDisabled() {
+
+    }
+
+    /**
+     * Named LightItem with a lore, handed out as a copy of its template.
+     */
+    public static class PlainItem extends LightItem {
+        @Override
+        public @NotNull String getIdentifier() {
+            return "benchmark_plain";
+        }
+
+        @Override
+        public List<String> getLore() {
+            return Arrays.asList("First lore line", "Second lore line");
+        }
+
+        @Override
+        public int getCustomModelData() {
+            return 1001;
+        }
+
+        @Override
+        public ShapedRecipe getDefaultShapedRecipe() {
+            return null;
+        }
+
+        @Override
+        public boolean isGivable() {
+            return true;
+        }
+
+        @Override
+        public boolean isUnique() {
+            return false;
+        }
+
+        @Override
+        public @NotNull Material getVanillaMaterial() {
+            return Material.DIAMOND_SWORD;
+        }
+    }
+
+    /**
+     * Same LightItem, with a new unique id on every ItemStack.
+     */
+    public static class UniqueItem extends PlainItem {
+        @Override
+        public @NotNull String getIdentifier() {
+            return "benchmark_unique";
+        }
+
+        @Override
+        public boolean isUnique() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.frahhs.lightlib.benchmark;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import com.frahhs.lightlib.util.ItemCodec;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ItemCodec with the Java serialization it replaced, encoding and decoding a player inventory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemCodecBenchmark {
+    @Param({"36", "54"})
+    private int slots;
+
+    private ItemStack[] items;
+    private byte[] legacy;
+    private byte[] encoded;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        MockBukkit.mock();
+
+        items = BenchmarkItems.inventory(slots);
+        legacy = LegacyItemCodec.encode(items);
+        encoded = ItemCodec.encode(items, false);
+        compressed = ItemCodec.encode(items, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    @Benchmark
+    public byte[] encodeLegacy() throws IOException {
+        return LegacyItemCodec.encode(items);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() {
+        return ItemCodec.encode(items, false);
+    }
+
+    @Benchmark
+    public byte[] encodeCodecCompressed() {
+        return ItemCodec.encode(items, true);
+    }
+
+    @Benchmark
+    public ItemStack[] decodeLegacy() throws IOException, ClassNotFoundException {
+        return LegacyItemCodec.decode(legacy);
+    }
+
+    @Benchmark
+    public ItemStack[] decodeCodec() throws IOException {
+        return ItemCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public ItemStack[] decodeCodecCompressed() throws IOException {
+        return ItemCodec.decode(compressed);
+    }
+}
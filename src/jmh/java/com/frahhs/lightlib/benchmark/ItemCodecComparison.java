@@ -0,0 +1,71 @@
+package com.frahhs.lightlib.benchmark;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import com.frahhs.lightlib.util.ItemCodec;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Base64;
+
+/**
+ * Checks that the ItemCodec round trip matches the Java serialization, and compares the encoded sizes.
+ * It exits with status 1 if a decoded item differs from the original one.
+ */
+public class ItemCodecComparison {
+    public static void main(String[] args) throws Exception {
+        MockBukkit.mock();
+        boolean failed = false;
+
+        try {
+            for (int slots : new int[] {9, 36, 54}) {
+                ItemStack[] items = BenchmarkItems.inventory(slots);
+
+                byte[] legacy = LegacyItemCodec.encode(items);
+                byte[] encoded = ItemCodec.encode(items, false);
+                byte[] compressed = ItemCodec.encode(items, true);
+
+                failed |= !matches("legacy", items, LegacyItemCodec.decode(legacy));
+                failed |= !matches("codec", items, ItemCodec.decode(encoded));
+                failed |= !matches("compressed codec", items, ItemCodec.decode(compressed));
+
+                // The items are stored as Base64 text
+                int legacySize = Base64.getEncoder().encodeToString(legacy).length();
+                int encodedSize = Base64.getEncoder().encodeToString(encoded).length();
+                int compressedSize = Base64.getEncoder().encodeToString(compressed).length();
+                System.out.printf("%d slots: legacy %d chars, codec %d chars (%.1fx), compressed codec %d chars (%.1fx)%n",
+                                  slots, legacySize,
+                                  encodedSize, (double) legacySize / encodedSize,
+                                  compressedSize, (double) legacySize / compressedSize);
+            }
+        } finally {
+            MockBukkit.unmock();
+        }
+
+        if(failed)
+            System.exit(1);
+    }
+
+    private static boolean matches(String encoding, ItemStack[] expected, ItemStack[] actual) {
+        if(expected.length != actual.length) {
+            System.out.printf("%s: %d slots decoded, expected %d.%n", encoding, actual.length, expected.length);
+            return false;
+        }
+
+        boolean matches = true;
+        for (int i = 0; i < expected.length; i++) {
+            // The legacy encoding writes the empty slots as air
+            ItemStack a = isEmpty(expected[i]) ? null : expected[i];
+            ItemStack b = isEmpty(actual[i]) ? null : actual[i];
+
+            if(a == null ? b != null : !a.equals(b)) {
+                System.out.printf("%s: slot %d decoded as %s, expected %s.%n", encoding, i, b, a);
+                matches = false;
+            }
+        }
+        return matches;
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR;
+    }
+}
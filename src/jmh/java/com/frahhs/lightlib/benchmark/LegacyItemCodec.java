@@ -0,0 +1,38 @@
+package com.frahhs.lightlib.benchmark;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * The Java serialization encoding used by ItemUtil before the ItemCodec, kept as the benchmark baseline.
+ */
+class LegacyItemCodec {
+    static byte[] encode(ItemStack[] items) throws IOException {
+        ByteArrayOutputStream str = new ByteArrayOutputStream();
+        BukkitObjectOutputStream data = new BukkitObjectOutputStream(str);
+        data.writeInt(items.length);
+        for (ItemStack item : items) {
+            if(item == null)
+                item = new ItemStack(Material.AIR);
+
+            data.writeObject(item);
+        }
+        data.close();
+        return str.toByteArray();
+    }
+
+    static ItemStack[] decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        BukkitObjectInputStream data = new BukkitObjectInputStream(new ByteArrayInputStream(bytes));
+        ItemStack[] items = new ItemStack[data.readInt()];
+        for (int i = 0; i < items.length; i++)
+            items[i] = (ItemStack) data.readObject();
+        data.close();
+        return items;
+    }
+}
@@ -0,0 +1,85 @@
+package com.frahhs.lightlib.benchmark;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.LightItem;
+import com.frahhs.lightlib.item.unique.UniqueItemRegistry;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the LightItem stacks served from the prebuilt templates with the copy and
+ * meta round trip done on every call before. Run it with "-prof gc" to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LightItemBenchmark {
+    private BenchmarkPlugin plugin;
+    private LightItem plain;
+    private LightItem unique;
+    private ItemStack template;
+    private NamespacedKey uuidKey;
+
+    @Setup
+    public void setup() {
+        MockBukkit.mock();
+        plugin = MockBukkit.load(BenchmarkPlugin.class);
+
+        plain = LightPlugin.getItemsManager().get("benchmark_plain");
+        unique = LightPlugin.getItemsManager().get("benchmark_unique");
+        template = plain.getTemplateStack();
+        uuidKey = new NamespacedKey(plugin, "uuid");
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() {
+        // The issued ids are written as the server would do periodically
+        UniqueItemRegistry uniqueItemRegistry = LightPlugin.getUniqueItemRegistry();
+        if(uniqueItemRegistry != null)
+            uniqueItemRegistry.flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    @Benchmark
+    public ItemStack itemStack() {
+        return plain.getItemStack();
+    }
+
+    @Benchmark
+    public ItemStack uniqueItemStack() {
+        return unique.getItemStack();
+    }
+
+    @Benchmark
+    public ItemStack legacyItemStack() {
+        ItemStack itemStack = template.clone();
+        ItemMeta meta = itemStack.getItemMeta();
+        assert meta != null;
+        itemStack.setItemMeta(meta);
+        return itemStack;
+    }
+
+    @Benchmark
+    public ItemStack legacyUniqueItemStack() {
+        ItemStack itemStack = template.clone();
+        ItemMeta meta = itemStack.getItemMeta();
+        assert meta != null;
+        meta.getPersistentDataContainer().set(uuidKey, PersistentDataType.STRING, UUID.randomUUID().toString());
+        itemStack.setItemMeta(meta);
+        return itemStack;
+    }
+}
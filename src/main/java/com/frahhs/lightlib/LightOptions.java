@@ -1,5 +1,8 @@
 package com.frahhs.lightlib;
 
+import com.frahhs.lightlib.item.unique.TimeOrderedIdGenerator;
+import com.frahhs.lightlib.item.unique.UniqueIdGenerator;
+
 import java.io.File;
 
 public class LightOptions {
@@ -10,6 +13,10 @@ public class LightOptions {
     private String githubContentsUrl;
     private String githubUrlTemplate;
     private Integer bstatsID = null;
+    private int coldStorageDays = 0;
+    private int placementLimit = -1;
+    private UniqueIdGenerator uniqueIdGenerator = new TimeOrderedIdGenerator();
+    private boolean configWatch = false;
 
     public void setPermissionPrefix(String permissionPrefix) {
         this.permissionPrefix = permissionPrefix;
@@ -35,6 +42,44 @@ public class LightOptions {
         this.bstatsID = bstatsID;
     }
 
+    /**
+     * Sets after how many days without being loaded the Light blocks of a world
+     * are moved to the cold storage, 0 disables the archiving.
+     *
+     * @param coldStorageDays The days of inactivity.
+     */
+    public void setColdStorageDays(int coldStorageDays) {
+        this.coldStorageDays = coldStorageDays;
+    }
+
+    /**
+     * Sets how many Light blocks a player can place in total, -1 for no limit.
+     * Players with the [prefix].limit.bypass permission ignore the limits.
+     *
+     * @param placementLimit The maximum number of placed Light blocks.
+     */
+    public void setPlacementLimit(int placementLimit) {
+        this.placementLimit = placementLimit;
+    }
+
+    /**
+     * Sets the generator of the ids stamped in the unique LightItems.
+     *
+     * @param uniqueIdGenerator The id generator.
+     */
+    public void setUniqueIdGenerator(UniqueIdGenerator uniqueIdGenerator) {
+        this.uniqueIdGenerator = uniqueIdGenerator;
+    }
+
+    /**
+     * Sets whether config.yml and the language files are reloaded automatically when edited.
+     *
+     * @param configWatch True to watch the files.
+     */
+    public void setConfigWatch(boolean configWatch) {
+        this.configWatch = configWatch;
+    }
+
     public String getPermissionPrefix() {
         return permissionPrefix;
     }
@@ -58,4 +103,20 @@ public class LightOptions {
     public Integer getBstatsID() {
         return bstatsID;
     }
+
+    public int getColdStorageDays() {
+        return coldStorageDays;
+    }
+
+    public int getPlacementLimit() {
+        return placementLimit;
+    }
+
+    public UniqueIdGenerator getUniqueIdGenerator() {
+        return uniqueIdGenerator;
+    }
+
+    public boolean getConfigWatch() {
+        return configWatch;
+    }
 }
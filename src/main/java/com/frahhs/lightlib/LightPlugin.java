@@ -1,20 +1,29 @@
 package com.frahhs.lightlib;
 
 import co.aikar.commands.PaperCommandManager;
+import com.frahhs.lightlib.block.BlockManager;
 import com.frahhs.lightlib.block.LightBlockListener;
 import com.frahhs.lightlib.database.DatabaseManager;
 import com.frahhs.lightlib.feature.FeatureManager;
 import com.frahhs.lightlib.gui.GUIListener;
 import com.frahhs.lightlib.item.ItemManager;
+import com.frahhs.lightlib.item.unique.UniqueItemRegistry;
+import com.frahhs.lightlib.provider.ConfigKeys;
 import com.frahhs.lightlib.provider.ConfigProvider;
+import com.frahhs.lightlib.provider.ConfigWatcher;
+import com.frahhs.lightlib.provider.LocaleListener;
 import com.frahhs.lightlib.provider.MessagesProvider;
 import com.frahhs.lightlib.util.bag.BagManager;
 import com.frahhs.lightlib.util.logging.LightLogger;
+import com.frahhs.lightlib.util.recipe.LightRecipeEngine;
+import com.frahhs.lightlib.util.recipe.RecipeManager;
 import com.frahhs.lightlib.util.update.UpdateChecker;
 import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
 public abstract class LightPlugin extends JavaPlugin {
@@ -25,17 +34,25 @@ public abstract class LightPlugin extends JavaPlugin {
     // Providers
     private static ConfigProvider configProvider;
     private static MessagesProvider messagesProvider;
+    private static ConfigWatcher configWatcher;
 
     // Managers
     private static DatabaseManager databaseManager;
     private static BagManager bagManager;
     private static ItemManager itemManager;
+    private static BlockManager blockManager;
+    private static UniqueItemRegistry uniqueItemRegistry;
+    private static RecipeManager recipeManager;
+    private static LightRecipeEngine recipeEngine;
     private static FeatureManager featureManager;
     private static PaperCommandManager commandManager;
 
     // Options
     private static LightOptions options;
 
+    // Reload in progress, null if none
+    private volatile CompletableFuture<Void> reloading;
+
     public abstract void onLightLoad();
     public abstract void onLightEnabled();
     public abstract void onLightDisabled();
@@ -46,16 +63,22 @@ public abstract class LightPlugin extends JavaPlugin {
     public void onEnable() {
         instance = this;
 
-        configProvider = new ConfigProvider(this);
-
         // Enable logger
         logger = new LightLogger(this.getName(), this);
         logger.setLevel(Level.INFO);
 
+        configProvider = new ConfigProvider(this);
+
         // Enable managers
         messagesProvider = new MessagesProvider(this);
 
+        if(options.getConfigWatch()) {
+            configWatcher = new ConfigWatcher(this, configProvider, messagesProvider);
+            configWatcher.start();
+        }
+
         itemManager = new ItemManager(this);
+        recipeEngine = new LightRecipeEngine(this);
         commandManager  = new PaperCommandManager(this);
         bagManager = new BagManager();
         featureManager = new FeatureManager(this);
@@ -63,16 +86,31 @@ public abstract class LightPlugin extends JavaPlugin {
         // Enable Database connection
         databaseManager = new DatabaseManager(
                 this,
-                configProvider.getString("database.database-name"),
-                configProvider.getString("database.mysql.address"),
-                configProvider.getString("database.mysql.port"),
-                configProvider.getString("database.mysql.username"),
-                configProvider.getString("database.mysql.password"),
-                configProvider.getString("database.type")
+                configProvider.get(ConfigKeys.DATABASE_NAME),
+                configProvider.get(ConfigKeys.MYSQL_ADDRESS),
+                configProvider.get(ConfigKeys.MYSQL_PORT),
+                configProvider.get(ConfigKeys.MYSQL_USERNAME),
+                configProvider.get(ConfigKeys.MYSQL_PASSWORD),
+                configProvider.get(ConfigKeys.DATABASE_TYPE)
         );
 
+        // Preload the saved recipes
+        recipeManager = new RecipeManager(this);
+        try {
+            recipeManager.load();
+        } catch (SQLException e) {
+            logger.error("Error while loading the shaped recipes from the database\n%s", e);
+        }
+
+        // Map the LightBlock index
+        blockManager = new BlockManager(this);
+
+        // Load the issued unique item ids
+        uniqueItemRegistry = new UniqueItemRegistry(this);
+
         getServer().getPluginManager().registerEvents(new LightBlockListener(),this);
         getServer().getPluginManager().registerEvents(new GUIListener(),this);
+        getServer().getPluginManager().registerEvents(new LocaleListener(messagesProvider),this);
 
         if(options.getUpdateCheck()) {
             if(options.getSpigotMarketID() == null) {
@@ -89,21 +127,50 @@ public abstract class LightPlugin extends JavaPlugin {
 
         onLightEnabled();
 
+        // Spawn the item displays left pending by a clone, now that the items are registered
+        blockManager.spawnLoadedPendingDisplays();
+
         // Disable plugin if is disabled in the config
-        if(!configProvider.getBoolean("enabled"))
+        if(!configProvider.get(ConfigKeys.ENABLED))
             this.getPluginLoader().disablePlugin(this);
     }
 
     @Override
     public void onDisable() {
+        // A reload in progress will never complete
+        CompletableFuture<Void> running = reloading;
+        reloading = null;
+        if(running != null)
+            running.completeExceptionally(new IllegalStateException("The plugin has been disabled during the reload."));
+
+        // Stop reloading the edited files
+        if(configWatcher != null)
+            configWatcher.stop();
+
         // Disable features
         if(featureManager != null)
             featureManager.disableFeatures();
 
+        // Write the pending config edits
+        if(configProvider != null)
+            configProvider.dispose();
+
+        // Remove the LightRecipes
+        if(recipeEngine != null)
+            recipeEngine.dispose();
+
         // Dispose items
         if(itemManager != null)
             itemManager.dispose();
 
+        // Flush the LightBlock index
+        if(blockManager != null)
+            blockManager.dispose();
+
+        // Save the unique item ids
+        if(uniqueItemRegistry != null)
+            uniqueItemRegistry.dispose();
+
         // Disable database
         if(databaseManager != null)
             databaseManager.disable();
@@ -125,13 +192,66 @@ public abstract class LightPlugin extends JavaPlugin {
         onLightLoad();
     }
 
+    /**
+     * Starts reloading the config, the language files and the managers.
+     * Use {@link #reloadAsync()} to know when the reload is complete.
+     */
     public void onReload() {
-        // Config and messages providers
-        configProvider.reload();
-        messagesProvider.reload();
+        reloadAsync();
+    }
+
+    /**
+     * Reloads the config, the language files and the managers.
+     * The config and the language files are parsed off the main thread, the managers
+     * reload on the main thread once they are published. A reload requested while
+     * another one is in progress returns the one in progress.
+     *
+     * @return A future completed once everything has reloaded, completed exceptionally
+     *         if the reload failed or the plugin has been disabled meanwhile.
+     */
+    public CompletableFuture<Void> reloadAsync() {
+        CompletableFuture<Void> running = reloading;
+        if(running != null)
+            return running;
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        reloading = future;
+
+        configProvider.reloadAsync()
+                .thenCompose(loaded -> messagesProvider.reloadAsync())
+                .whenComplete((loaded, e) -> {
+                    if(e != null) {
+                        logger.error("Error while reloading the config and language files.\n%s", e);
+                        finishReload(future, e);
+                        return;
+                    }
+
+                    try {
+                        reloadManagers();
+                    } catch (RuntimeException ex) {
+                        logger.error("Error while reloading the managers.\n%s", ex);
+                        finishReload(future, ex);
+                        return;
+                    }
+                    finishReload(future, null);
+                });
+        return future;
+    }
+
+    private void finishReload(CompletableFuture<Void> future, Throwable e) {
+        // A new reload can start from the callbacks of this one
+        if(reloading == future)
+            reloading = null;
+
+        if(e != null)
+            future.completeExceptionally(e);
+        else
+            future.complete(null);
+    }
 
-        // Item
-        itemManager.dispose();
+    private void reloadManagers() {
+        // Item, registered again by the features and onLightReload
+        itemManager.beginReload();
 
         // Bag
         bagManager.disableBags();
@@ -142,6 +262,9 @@ public abstract class LightPlugin extends JavaPlugin {
         featureManager.enableFeatures();
 
         onLightReload();
+
+        itemManager.endReload();
+        blockManager.spawnLoadedPendingDisplays();
     }
 
     public static LightPlugin getInstance() {
@@ -202,6 +325,42 @@ public abstract class LightPlugin extends JavaPlugin {
         return itemManager;
     }
 
+    /**
+     * Will retrieve the BlockManager
+     *
+     * @return the BlockManager
+     */
+    public static BlockManager getBlockManager() {
+        return blockManager;
+    }
+
+    /**
+     * Will retrieve the UniqueItemRegistry
+     *
+     * @return the UniqueItemRegistry
+     */
+    public static UniqueItemRegistry getUniqueItemRegistry() {
+        return uniqueItemRegistry;
+    }
+
+    /**
+     * Will retrieve the RecipeManager
+     *
+     * @return the RecipeManager
+     */
+    public static RecipeManager getRecipeManager() {
+        return recipeManager;
+    }
+
+    /**
+     * Will retrieve the LightRecipeEngine
+     *
+     * @return the LightRecipeEngine
+     */
+    public static LightRecipeEngine getRecipeEngine() {
+        return recipeEngine;
+    }
+
     /**
      * Will retrieve the FeatureManager
      *
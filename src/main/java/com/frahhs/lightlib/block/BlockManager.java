@@ -0,0 +1,595 @@
+package com.frahhs.lightlib.block;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.database.DatabaseManager;
+import com.frahhs.lightlib.item.LightItem;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemDisplay;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Class for managing the placed Light blocks.
+ */
+public class BlockManager {
+    private final LightPlugin plugin;
+    private LightBlockIndex index;
+    private final PlacerIndex placerIndex;
+    private final ColdStorage coldStorage;
+    private final String limitBypassPermission;
+
+    // Chunks holding Light blocks without an item display, by world
+    private final Map<String, Set<Long>> pendingDisplays;
+
+    // Removed Light blocks of unloaded chunks, cleared when their entities load, by world and chunk
+    private final Map<String, Map<Long, List<RemovedBlock>>> pendingRemovals;
+
+    /**
+     * Constructor for BlockManager.
+     *
+     * @param plugin The LightPlugin instance.
+     */
+    public BlockManager(LightPlugin plugin) {
+        this.plugin = plugin;
+        this.limitBypassPermission = LightPlugin.getOptions().getPermissionPrefix() + ".limit.bypass";
+        this.pendingDisplays = new HashMap<>();
+        this.pendingRemovals = new HashMap<>();
+        this.placerIndex = new PlacerIndex();
+
+        loadIndex();
+        loadPlacerIndex();
+
+        // Bring back the blocks of the worlds loaded while the plugin was off
+        coldStorage = new ColdStorage(this, plugin.getDataFolder());
+        coldStorage.restoreLoadedWorlds();
+
+        int days = LightPlugin.getOptions().getColdStorageDays();
+        if(days > 0) {
+            long day = 20L * 60 * 60 * 24;
+            plugin.getServer().getScheduler().runTaskTimer(plugin, () -> coldStorage.archiveInactiveWorlds(days), 20L * 60, day);
+        }
+
+        // The item displays left pending by a clone are spawned once the items are registered
+        trackPendingDisplays(null);
+    }
+
+    /**
+     * Spawns the pending item displays of all the loaded chunks.
+     * It is called once the LightItems are registered, the chunks loaded later
+     * spawn their displays when their entities load.
+     */
+    public void spawnLoadedPendingDisplays() {
+        for (World world : Bukkit.getWorlds())
+            for (Chunk chunk : world.getLoadedChunks())
+                if(chunk.isEntitiesLoaded())
+                    spawnPendingDisplays(chunk, Arrays.asList(chunk.getEntities()));
+    }
+
+    /**
+     * Tracks again the pending item displays of all the worlds and spawns the loaded ones.
+     * It is called after the BlocksPlaced table is replaced.
+     */
+    public void reloadPendingDisplays() {
+        pendingDisplays.clear();
+        trackPendingDisplays(null);
+        spawnLoadedPendingDisplays();
+    }
+
+    /**
+     * Maps the LightBlock index, rebuilding it from the database if it is stale.
+     */
+    private void loadIndex() {
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        if(database.getConnection() == null)
+            return;
+
+        File file = new File(plugin.getDataFolder(), "data/blocks.idx");
+        long generation = database.getBlocksGeneration();
+        index = new LightBlockIndex(file);
+
+        try {
+            if(index.open(generation)) {
+                LightPlugin.getLightLogger().fine("Mapped LightBlock index, %d blocks at generation %d.", index.size(), generation);
+                return;
+            }
+
+            LightPlugin.getLightLogger().fine("LightBlock index is missing or stale, rebuilding it...");
+            index.rebuild(database.getConnection(), generation);
+            LightPlugin.getLightLogger().fine("Rebuilt LightBlock index, %d blocks at generation %d.", index.size(), generation);
+        } catch (IOException | SQLException e) {
+            disableIndex(e);
+        }
+    }
+
+    /**
+     * Loads the placed Light blocks count of every placer.
+     */
+    public void loadPlacerIndex() {
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null)
+            return;
+
+        try {
+            placerIndex.load(connection);
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while loading the placer index.\n%s", e);
+        }
+    }
+
+    /**
+     * Rebuilds the LightBlock index from the database.
+     */
+    public void rebuildIndex() {
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        if(index == null)
+            index = new LightBlockIndex(new File(plugin.getDataFolder(), "data/blocks.idx"));
+
+        try {
+            index.rebuild(database.getConnection(), database.getBlocksGeneration());
+            LightPlugin.getLightLogger().fine("Rebuilt LightBlock index, %d blocks.", index.size());
+        } catch (IOException | SQLException e) {
+            disableIndex(e);
+        }
+    }
+
+    /**
+     * Retrieves the secondary index of the Light blocks by placer.
+     *
+     * @return The PlacerIndex.
+     */
+    public PlacerIndex getPlacerIndex() {
+        return placerIndex;
+    }
+
+    /**
+     * Retrieves how many Light blocks a player placed.
+     *
+     * @param placer The UUID of the placer.
+     * @return The number of placed Light blocks.
+     */
+    public int getPlacedCount(UUID placer) {
+        return placerIndex.getCount(placer);
+    }
+
+    /**
+     * Checks if a player reached the placement limits for a Light item.
+     * The global limit is set in the LightOptions, the item limit by the item itself.
+     *
+     * @param player The player placing the block.
+     * @param item The Light item to place.
+     * @return True if the player cannot place another block of the item, otherwise false.
+     */
+    public boolean isLimitReached(Player player, LightItem item) {
+        int globalLimit = LightPlugin.getOptions().getPlacementLimit();
+        int itemLimit = item.getPlacementLimit();
+
+        if(globalLimit < 0 && itemLimit < 0)
+            return false;
+
+        UUID placer = player.getUniqueId();
+        boolean reached = (globalLimit >= 0 && placerIndex.getCount(placer) >= globalLimit)
+                       || (itemLimit >= 0 && placerIndex.getCount(placer, item.getIdentifier()) >= itemLimit);
+
+        return reached && !player.hasPermission(limitBypassPermission);
+    }
+
+    /**
+     * Removes all the Light blocks placed by a player, for example when the player is banned.
+     * The blocks in the loaded chunks are broken without drops, with their item displays,
+     * the blocks of unloaded chunks of loaded worlds are broken when their entities load.
+     *
+     * @param placer The UUID of the placer.
+     * @return The number of removed Light blocks, -1 if the removal failed.
+     */
+    public int removePlacedBy(UUID placer) {
+        LightPlugin.getLightLogger().fine("Removing the Light blocks placed by %s...", placer);
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        Connection connection = database.getConnection();
+        List<RemovedBlock> removed = new ArrayList<>();
+        long generation;
+
+        // The world is changed only once the rows are deleted
+        try {
+            PreparedStatement ps = connection.prepareStatement("SELECT world, entityUUID, blockX, blockY, blockZ FROM BlocksPlaced WHERE placer = ?;");
+            ps.setString(1, placer.toString());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next())
+                removed.add(new RemovedBlock(rs.getString("world"), rs.getString("entityUUID"), rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ")));
+            rs.close();
+            ps.close();
+
+            ps = connection.prepareStatement("DELETE FROM BlocksPlaced WHERE placer = ?;");
+            ps.setString(1, placer.toString());
+            ps.executeUpdate();
+            ps.close();
+
+            generation = database.incrementBlocksGeneration();
+            connection.commit();
+            database.commitBlocksGeneration(generation);
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while removing the Light blocks placed by %s.\n%s", placer, e);
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", ex);
+            }
+            return -1;
+        }
+
+        boolean unloadedWorld = false;
+        for (RemovedBlock block : removed) {
+            World world = Bukkit.getWorld(block.world);
+
+            // Blocks of unloaded worlds are rebuilt in the index by world name
+            if(world == null) {
+                unloadedWorld = true;
+                continue;
+            }
+
+            indexRemoved(new Location(world, block.x, block.y, block.z), generation);
+
+            // Chunks are not loaded for the removal
+            if(world.isChunkLoaded(block.x >> 4, block.z >> 4) && world.getChunkAt(block.x >> 4, block.z >> 4).isEntitiesLoaded())
+                clearRemovedBlock(world, block);
+            else
+                pendingRemovals.computeIfAbsent(block.world, k -> new HashMap<>())
+                               .computeIfAbsent(chunkKey(block.x >> 4, block.z >> 4), k -> new ArrayList<>())
+                               .add(block);
+        }
+        if(unloadedWorld)
+            rebuildIndex();
+
+        placerIndex.remove(placer);
+        LightPlugin.getLightLogger().fine("Removed %d Light blocks placed by %s.", removed.size(), placer);
+        return removed.size();
+    }
+
+    /**
+     * Breaks the Light blocks removed while their chunk was not loaded.
+     *
+     * @param chunk The chunk whose entities were loaded.
+     */
+    public void clearPendingRemovals(Chunk chunk) {
+        Map<Long, List<RemovedBlock>> chunks = pendingRemovals.get(chunk.getWorld().getName());
+        if(chunks == null)
+            return;
+
+        List<RemovedBlock> blocks = chunks.remove(chunkKey(chunk.getX(), chunk.getZ()));
+        if(chunks.isEmpty())
+            pendingRemovals.remove(chunk.getWorld().getName());
+        if(blocks == null)
+            return;
+
+        for (RemovedBlock block : blocks)
+            clearRemovedBlock(chunk.getWorld(), block);
+    }
+
+    private static void clearRemovedBlock(World world, RemovedBlock block) {
+        Entity itemDisplay = block.entityUUID.isEmpty() ? null : Bukkit.getEntity(UUID.fromString(block.entityUUID));
+        if(itemDisplay != null)
+            itemDisplay.remove();
+        world.getBlockAt(block.x, block.y, block.z).setType(Material.AIR);
+    }
+
+    /**
+     * Retrieves the cold storage of the Light blocks.
+     *
+     * @return The ColdStorage.
+     */
+    public ColdStorage getColdStorage() {
+        return coldStorage;
+    }
+
+    /**
+     * Clones all the Light blocks of a world into another world.
+     * <p>
+     * The records are copied with a single statement on the database side and
+     * bulk-indexed, the item displays are spawned lazily when the chunks of
+     * the target world load their entities. The Light blocks previously
+     * recorded in the target world are dropped.
+     *
+     * @param source The name of the world to copy.
+     * @param target The name of the world receiving the copy.
+     * @return The number of cloned Light blocks, -1 if the clone failed.
+     */
+    public int cloneWorld(String source, String target) {
+        LightPlugin.getLightLogger().fine("Cloning %s Light blocks to %s...", source, target);
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        Connection connection = database.getConnection();
+        int cloned;
+        long generation;
+
+        try {
+            // Discount the blocks being replaced
+            placerIndex.adjustWorld(connection, target, -1);
+
+            PreparedStatement ps = connection.prepareStatement("DELETE FROM BlocksPlaced WHERE world = ?;");
+            ps.setString(1, target);
+            ps.executeUpdate();
+            ps.close();
+
+            // An empty entityUUID marks a block waiting for its item display
+            ps = connection.prepareStatement("INSERT INTO BlocksPlaced (placer, material, entityUUID, world, blockX, blockY, blockZ) " +
+                                             "SELECT placer, material, '', ?, blockX, blockY, blockZ FROM BlocksPlaced WHERE world = ?;");
+            ps.setString(1, target);
+            ps.setString(2, source);
+            cloned = ps.executeUpdate();
+            ps.close();
+
+            generation = database.incrementBlocksGeneration();
+            connection.commit();
+            database.commitBlocksGeneration(generation);
+
+            placerIndex.adjustWorld(connection, target, 1);
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while cloning %s Light blocks to %s.\n%s", source, target, e);
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", ex);
+            }
+            loadPlacerIndex();
+            return -1;
+        }
+
+        // Bulk-index the copy
+        indexRemovedWorld(target, generation);
+        try (PreparedStatement ps = connection.prepareStatement("SELECT blockX, blockY, blockZ FROM BlocksPlaced WHERE world = ?;")) {
+            ps.setString(1, target);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    indexPlaced(target, rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ"), generation);
+            }
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while indexing the %s Light blocks.\n%s", target, e);
+            rebuildIndex();
+        }
+
+        // Chunks with the entities already loaded do not fire the event again
+        trackPendingDisplays(target);
+        World world = Bukkit.getWorld(target);
+        if(world != null)
+            for (Chunk chunk : world.getLoadedChunks())
+                if(chunk.isEntitiesLoaded())
+                    spawnPendingDisplays(chunk, Arrays.asList(chunk.getEntities()));
+
+        LightPlugin.getLightLogger().fine("Cloned %d %s Light blocks to %s.", cloned, source, target);
+        return cloned;
+    }
+
+    /**
+     * Loads the chunks holding Light blocks without an item display.
+     *
+     * @param world The world name, null for all the worlds.
+     */
+    protected void trackPendingDisplays(String world) {
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null)
+            return;
+
+        String sql = "SELECT world, blockX, blockZ FROM BlocksPlaced WHERE entityUUID = ''" + (world == null ? ";" : " AND world = ?;");
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            if(world != null)
+                ps.setString(1, world);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    pendingDisplays.computeIfAbsent(rs.getString("world"), k -> new HashSet<>())
+                                   .add(chunkKey(rs.getInt("blockX") >> 4, rs.getInt("blockZ") >> 4));
+            }
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while selecting the pending item displays.\n%s", e);
+        }
+    }
+
+    /**
+     * Spawns the missing item displays of the Light blocks in a chunk.
+     * An item display already standing on the block is adopted instead of spawning a new one.
+     * The chunk stays pending while some of its blocks have an item not registered yet.
+     *
+     * @param chunk The chunk whose entities were loaded.
+     * @param entities The entities of the chunk.
+     */
+    public void spawnPendingDisplays(Chunk chunk, List<Entity> entities) {
+        String worldName = chunk.getWorld().getName();
+        long key = chunkKey(chunk.getX(), chunk.getZ());
+        Set<Long> chunks = pendingDisplays.get(worldName);
+        if(chunks == null || !chunks.contains(key))
+            return;
+
+        boolean resolved = true;
+
+        // Displays copied along with the world files
+        Map<Location, ItemDisplay> standing = new HashMap<>();
+        for (Entity entity : entities)
+            if(entity instanceof ItemDisplay)
+                standing.put(entity.getLocation().getBlock().getLocation(), (ItemDisplay) entity);
+
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        int minX = chunk.getX() << 4;
+        int minZ = chunk.getZ() << 4;
+
+        try (PreparedStatement select = connection.prepareStatement("SELECT id, material, blockX, blockY, blockZ FROM BlocksPlaced WHERE world = ? AND entityUUID = '' AND blockX >= ? AND blockX < ? AND blockZ >= ? AND blockZ < ?;");
+             PreparedStatement update = connection.prepareStatement("UPDATE BlocksPlaced SET entityUUID = ? WHERE id = ?;")) {
+            select.setString(1, chunk.getWorld().getName());
+            select.setInt(2, minX);
+            select.setInt(3, minX + 16);
+            select.setInt(4, minZ);
+            select.setInt(5, minZ + 16);
+
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    LightItem item = LightPlugin.getItemsManager().get(rs.getString("material"));
+                    if(item == null) {
+                        resolved = false;
+                        continue;
+                    }
+
+                    Location location = new Location(chunk.getWorld(), rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ"));
+                    ItemDisplay itemDisplay = standing.get(location);
+                    if(itemDisplay == null)
+                        itemDisplay = LightBlock.spawnItemDisplay(item, location, 180);
+
+                    update.setString(1, itemDisplay.getUniqueId().toString());
+                    update.setInt(2, rs.getInt("id"));
+                    update.addBatch();
+                }
+            }
+
+            update.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while spawning the pending item displays.\n%s", e);
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", ex);
+            }
+            return;
+        }
+
+        // Forget the chunk only when all its blocks have their display
+        if(resolved) {
+            chunks.remove(key);
+            if(chunks.isEmpty())
+                pendingDisplays.remove(worldName);
+        }
+    }
+
+    /**
+     * Checks if a location may hold a Light block.
+     * A negative answer is definitive, a positive one must be confirmed by the database.
+     *
+     * @param location The location to check.
+     * @return False if the location surely does not hold a Light block, otherwise true.
+     */
+    public boolean mayBeLightBlock(Location location) {
+        if(index == null)
+            return true;
+
+        return index.contains(Objects.requireNonNull(location.getWorld()).getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Adds a placed Light block to the index.
+     *
+     * @param location The location of the placed block.
+     * @param generation The BlocksPlaced generation after the insert.
+     */
+    protected void indexPlaced(Location location, long generation) {
+        indexPlaced(Objects.requireNonNull(location.getWorld()).getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ(), generation);
+    }
+
+    /**
+     * Adds a placed Light block to the index.
+     *
+     * @param world The world name.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @param generation The BlocksPlaced generation after the insert.
+     */
+    protected void indexPlaced(String world, int x, int y, int z, long generation) {
+        if(index == null)
+            return;
+
+        try {
+            index.add(world, x, y, z, generation);
+        } catch (IOException e) {
+            disableIndex(e);
+        }
+    }
+
+    /**
+     * Removes a Light block from the index.
+     *
+     * @param location The location of the removed block.
+     * @param generation The BlocksPlaced generation after the delete.
+     */
+    protected void indexRemoved(Location location, long generation) {
+        if(index == null)
+            return;
+
+        index.remove(Objects.requireNonNull(location.getWorld()).getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ(), generation);
+    }
+
+    /**
+     * Removes all the Light blocks of a world from the index.
+     *
+     * @param world The world name.
+     * @param generation The BlocksPlaced generation after the delete.
+     */
+    protected void indexRemovedWorld(String world, long generation) {
+        if(index == null)
+            return;
+
+        // Worlds are keyed by name hash, a colliding world would lose its blocks too
+        if(hasWorldKeyCollision(world)) {
+            rebuildIndex();
+            return;
+        }
+
+        index.removeWorld(world, generation);
+    }
+
+    /**
+     * Dispose the block manager, flushing the index to the disk.
+     */
+    public void dispose() {
+        if(index != null)
+            index.close();
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private boolean hasWorldKeyCollision(String world) {
+        try (Statement stmt = LightPlugin.getLightDatabase().getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT world FROM WorldActivity;")) {
+            while (rs.next()) {
+                String other = rs.getString("world");
+                if(!other.equals(world) && other.hashCode() == world.hashCode())
+                    return true;
+            }
+        } catch (SQLException e) {
+            // Unknown, assume the worst
+            return true;
+        }
+        return false;
+    }
+
+    private void disableIndex(Exception e) {
+        // The file keeps an old generation, so it will be rebuilt on the next start
+        LightPlugin.getLightLogger().error("Error while handling the LightBlock index, falling back to database lookups.\n%s", e);
+        index = null;
+    }
+
+    private static class RemovedBlock {
+        private final String world;
+        private final String entityUUID;
+        private final int x;
+        private final int y;
+        private final int z;
+
+        private RemovedBlock(String world, String entityUUID, int x, int y, int z) {
+            this.world = world;
+            this.entityUUID = entityUUID;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.frahhs.lightlib.block;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.database.DatabaseManager;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the Light blocks of inactive worlds from the BlocksPlaced table to compressed archives.
+ * <p>
+ * Each archived world has its own gzip file in the data/cold folder,
+ * the blocks are restored in the table as soon as the world is loaded again.
+ * The archives are compressed off the main thread, the database statements
+ * run on the main thread, which owns the connection. The archives are restored
+ * synchronously, so a loaded world never has Light blocks outside the table.
+ */
+public class ColdStorage {
+    private static final int MAGIC = 0x4C42434F;
+    private static final int VERSION = 1;
+    private static final int BATCH_SIZE = 500;
+
+    private final BlockManager blockManager;
+    private final File folder;
+
+    // Worlds being archived, accessed only from the main thread
+    private final Set<String> busy;
+
+    // Bumped when the archives are dropped, the archives written before are discarded
+    private int epoch;
+
+    /**
+     * Constructs a new ColdStorage.
+     *
+     * @param blockManager The BlockManager owning the LightBlock index.
+     * @param dataFolder The plugin data folder.
+     */
+    public ColdStorage(BlockManager blockManager, File dataFolder) {
+        this.blockManager = blockManager;
+        this.folder = new File(dataFolder, "data/cold");
+        this.busy = new HashSet<>();
+    }
+
+    /**
+     * Marks a world as loaded now.
+     *
+     * @param world The world name.
+     */
+    public void touch(String world) {
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null)
+            return;
+
+        try {
+            PreparedStatement ps = connection.prepareStatement("UPDATE WorldActivity SET lastLoaded = ? WHERE world = ?;");
+            ps.setLong(1, System.currentTimeMillis());
+            ps.setString(2, world);
+            int updated = ps.executeUpdate();
+            ps.close();
+
+            if(updated == 0) {
+                ps = connection.prepareStatement("INSERT INTO WorldActivity (world, lastLoaded) VALUES (?, ?);");
+                ps.setString(1, world);
+                ps.setLong(2, System.currentTimeMillis());
+                ps.executeUpdate();
+                ps.close();
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while updating the activity of world %s.\n%s", world, e);
+            rollback(connection);
+        }
+    }
+
+    /**
+     * Archives the Light blocks of every world not loaded for the given amount of days.
+     *
+     * @param days The days of inactivity after a world is archived.
+     */
+    public void archiveInactiveWorlds(int days) {
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null)
+            return;
+
+        List<String> inactive = new ArrayList<>();
+
+        try {
+            // Worlds with blocks but never tracked start their inactivity now
+            Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT DISTINCT world FROM BlocksPlaced WHERE world NOT IN (SELECT world FROM WorldActivity);");
+            List<String> untracked = new ArrayList<>();
+            while (rs.next())
+                untracked.add(rs.getString("world"));
+            rs.close();
+            stmt.close();
+
+            for (String world : untracked)
+                touch(world);
+
+            PreparedStatement ps = connection.prepareStatement("SELECT DISTINCT b.world FROM BlocksPlaced b JOIN WorldActivity w ON b.world = w.world WHERE w.lastLoaded < ?;");
+            ps.setLong(1, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+            rs = ps.executeQuery();
+            while (rs.next())
+                inactive.add(rs.getString("world"));
+            rs.close();
+            ps.close();
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while selecting the inactive worlds.\n%s", e);
+            return;
+        }
+
+        for (String world : inactive) {
+            // A loaded world is active, even if it was never unloaded
+            if(Bukkit.getWorld(world) != null) {
+                touch(world);
+                continue;
+            }
+
+            archive(world);
+        }
+    }
+
+    /**
+     * Moves the Light blocks of a world from the BlocksPlaced table to its archive.
+     * The rows are read right away, the archive is written by an async task and
+     * the rows are deleted back on the main thread. It must be called from the main thread.
+     *
+     * @param world The world name.
+     */
+    public void archive(String world) {
+        if(busy.contains(world))
+            return;
+
+        // Merge a previous archive first, the world is archived again on the next run
+        if(getArchive(world).exists()) {
+            restore(world);
+            return;
+        }
+
+        LightPlugin.getLightLogger().fine("Archiving %s Light blocks...", world);
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        Connection connection = database.getConnection();
+        if(connection == null)
+            return;
+
+        List<Row> rows = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement("SELECT placer, material, entityUUID, blockX, blockY, blockZ, timestamp FROM BlocksPlaced WHERE world = ?;")) {
+            ps.setString(1, world);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    rows.add(new Row(rs.getString("placer"), rs.getString("material"), rs.getString("entityUUID"),
+                                     rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ"), rs.getString("timestamp")));
+            }
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while archiving %s Light blocks.\n%s", world, e);
+            return;
+        }
+
+        LightPlugin plugin = LightPlugin.getInstance();
+        File archive = getArchive(world);
+        File tmp = new File(archive.getPath() + ".tmp");
+        int startEpoch = epoch;
+        busy.add(world);
+
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                writeArchive(world, rows, tmp);
+            } catch (IOException e) {
+                LightPlugin.getLightLogger().error("Error while archiving %s Light blocks.\n%s", world, e);
+                deleteFile(tmp);
+                runTask(() -> busy.remove(world));
+                return;
+            }
+
+            runTask(() -> {
+                busy.remove(world);
+
+                // The data was replaced while the archive was written
+                if(startEpoch != epoch) {
+                    deleteFile(tmp);
+                    return;
+                }
+                publishArchive(world, rows.size(), tmp, archive);
+            });
+        });
+    }
+
+    /**
+     * Publishes a written archive and deletes the archived rows.
+     * The archive is removed again if the rows cannot be deleted, so the blocks are never in both.
+     */
+    private void publishArchive(String world, int rows, File tmp, File archive) {
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        Connection connection = database.getConnection();
+
+        // The world was loaded or its blocks changed while the archive was written
+        if(Bukkit.getWorld(world) != null || connection == null || countBlocks(connection, world) != rows) {
+            deleteFile(tmp);
+            return;
+        }
+
+        boolean published = false;
+        boolean discounted = false;
+        try {
+            // The archive is complete on the disk before the rows are deleted
+            Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            published = true;
+
+            // Archived blocks do not count for the placement limits
+            blockManager.getPlacerIndex().adjustWorld(connection, world, -1);
+            discounted = true;
+
+            PreparedStatement ps = connection.prepareStatement("DELETE FROM BlocksPlaced WHERE world = ?;");
+            ps.setString(1, world);
+            ps.executeUpdate();
+            ps.close();
+            long committed = database.incrementBlocksGeneration();
+            connection.commit();
+            database.commitBlocksGeneration(committed);
+
+            blockManager.indexRemovedWorld(world, committed);
+            LightPlugin.getLightLogger().fine("Archived %d %s Light blocks.", rows, world);
+        } catch (IOException | SQLException e) {
+            LightPlugin.getLightLogger().error("Error while archiving %s Light blocks.\n%s", world, e);
+            rollback(connection);
+            if(discounted)
+                blockManager.loadPlacerIndex();
+
+            // The rows are still in the table, the archive would restore them twice
+            if(published)
+                deleteFile(archive);
+            deleteFile(tmp);
+        }
+    }
+
+    /**
+     * Moves the Light blocks of a world from its archive back to the BlocksPlaced table.
+     * The archive is streamed into the table on the calling thread, so the blocks
+     * are never missing from both while the world is loaded.
+     * It must be called from the main thread.
+     *
+     * @param world The world name.
+     */
+    public void restore(String world) {
+        File archive = getArchive(world);
+        if(!archive.exists() || busy.contains(world))
+            return;
+
+        LightPlugin.getLightLogger().fine("Restoring %s Light blocks...", world);
+        DatabaseManager database = LightPlugin.getLightDatabase();
+        Connection connection = database.getConnection();
+        if(connection == null)
+            return;
+
+        Set<String> existing;
+        Coordinates inserted = new Coordinates();
+        boolean discounted = false;
+        try (DataInputStream in = openArchive(archive);
+             PreparedStatement ps = connection.prepareStatement("INSERT INTO BlocksPlaced (placer, material, entityUUID, world, blockX, blockY, blockZ, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?);")) {
+            // Blocks placed again at archived coordinates win over the archive
+            existing = selectCoordinates(connection, world);
+
+            // The counts are taken again from the whole world once the rows are in
+            blockManager.getPlacerIndex().adjustWorld(connection, world, -1);
+            discounted = true;
+
+            int batched = 0;
+            while (in.readBoolean()) {
+                String placer = readNullableUTF(in);
+                String material = in.readUTF();
+                String entityUUID = in.readUTF();
+                int x = in.readInt();
+                int y = in.readInt();
+                int z = in.readInt();
+                String timestamp = readNullableUTF(in);
+
+                if(!existing.add(x + "," + y + "," + z))
+                    continue;
+
+                ps.setString(1, placer);
+                ps.setString(2, material);
+                ps.setString(3, entityUUID);
+                ps.setString(4, world);
+                ps.setInt(5, x);
+                ps.setInt(6, y);
+                ps.setInt(7, z);
+                ps.setString(8, timestamp);
+                ps.addBatch();
+                inserted.add(x, y, z);
+
+                if(++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if(batched > 0)
+                ps.executeBatch();
+
+            long generation = database.incrementBlocksGeneration();
+            connection.commit();
+            database.commitBlocksGeneration(generation);
+
+            blockManager.getPlacerIndex().adjustWorld(connection, world, 1);
+            for (int i = 0; i < inserted.size(); i++)
+                blockManager.indexPlaced(world, inserted.x(i), inserted.y(i), inserted.z(i), generation);
+            blockManager.trackPendingDisplays(world);
+        } catch (IOException | SQLException e) {
+            LightPlugin.getLightLogger().error("Error while restoring %s Light blocks, the archive is kept.\n%s", world, e);
+            rollback(connection);
+            if(discounted)
+                blockManager.loadPlacerIndex();
+            return;
+        }
+
+        if(!archive.delete())
+            LightPlugin.getLightLogger().warning("Unable to delete the archive %s.", archive.getPath());
+        LightPlugin.getLightLogger().fine("Restored %d %s Light blocks.", inserted.size(), world);
+    }
+
+    private static Set<String> selectCoordinates(Connection connection, String world) throws SQLException {
+        Set<String> coordinates = new HashSet<>();
+        try (PreparedStatement ps = connection.prepareStatement("SELECT blockX, blockY, blockZ FROM BlocksPlaced WHERE world = ?;")) {
+            ps.setString(1, world);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    coordinates.add(rs.getInt("blockX") + "," + rs.getInt("blockY") + "," + rs.getInt("blockZ"));
+            }
+        }
+        return coordinates;
+    }
+
+    private static int countBlocks(Connection connection, String world) {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM BlocksPlaced WHERE world = ?;")) {
+            ps.setString(1, world);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while counting the %s Light blocks.\n%s", world, e);
+            return -1;
+        }
+    }
+
+    private static void writeArchive(String world, List<Row> rows, File tmp) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(world);
+
+            for (Row row : rows) {
+                out.writeBoolean(true);
+                writeNullableUTF(out, row.placer);
+                out.writeUTF(row.material);
+                out.writeUTF(row.entityUUID);
+                out.writeInt(row.x);
+                out.writeInt(row.y);
+                out.writeInt(row.z);
+                writeNullableUTF(out, row.timestamp);
+            }
+            out.writeBoolean(false);
+        }
+    }
+
+    /**
+     * Retrieves the worlds with an archive.
+     *
+     * @return The names of the archived worlds.
+     */
+    public List<String> getArchivedWorlds() {
+        List<String> worlds = new ArrayList<>();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".lbc.gz"));
+        if(files == null)
+            return worlds;
+
+        for (File file : files)
+            worlds.add(file.getName().substring(0, file.getName().length() - ".lbc.gz".length()));
+        return worlds;
+    }
+
+    /**
+     * Streams the Light blocks of an archived world, without restoring them.
+     *
+     * @param world The world name.
+     * @param visitor The visitor called for every archived block.
+     * @throws IOException If an I/O error occurs or the archive is not valid.
+     */
+    public void readArchive(String world, BlockVisitor visitor) throws IOException {
+        try (DataInputStream in = openArchive(getArchive(world))) {
+            while (in.readBoolean())
+                visitor.visit(readNullableUTF(in), in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readInt(), readNullableUTF(in));
+        }
+    }
+
+    /**
+     * Deletes all the archives, the archives being written are discarded too.
+     * It is called once the BlocksPlaced table is replaced, it must be called from the main thread.
+     */
+    public void deleteArchives() {
+        epoch++;
+        for (String world : getArchivedWorlds())
+            deleteFile(getArchive(world));
+    }
+
+    /**
+     * Restores the archives of all the loaded worlds.
+     */
+    public void restoreLoadedWorlds() {
+        for (World world : Bukkit.getWorlds()) {
+            touch(world.getName());
+            restore(world.getName());
+        }
+    }
+
+    private File getArchive(String world) {
+        return new File(folder, world + ".lbc.gz");
+    }
+
+    private static DataInputStream openArchive(File archive) throws IOException {
+        DataInputStream in = new DataInputStream(new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(archive))));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unknown archive format " + archive.getPath());
+            in.readUTF();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    private static void runTask(Runnable task) {
+        LightPlugin plugin = LightPlugin.getInstance();
+        if(plugin.isEnabled())
+            plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+
+    private static void deleteFile(File file) {
+        if(file.exists() && !file.delete())
+            LightPlugin.getLightLogger().warning("Unable to delete %s.", file.getPath());
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", e);
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Visitor of the archived Light blocks.
+     */
+    @FunctionalInterface
+    public interface BlockVisitor {
+        /**
+         * Visits an archived Light block.
+         *
+         * @param placer The UUID of the placer, null if unknown.
+         * @param material The identifier of the Light item.
+         * @param entityUUID The UUID of the item display.
+         * @param x The block x coordinate.
+         * @param y The block y coordinate.
+         * @param z The block z coordinate.
+         * @param timestamp The placement timestamp, null if unknown.
+         * @throws IOException If an I/O error occurs while handling the block.
+         */
+        void visit(String placer, String material, String entityUUID, int x, int y, int z, String timestamp) throws IOException;
+    }
+
+    private static class Row {
+        private final String placer;
+        private final String material;
+        private final String entityUUID;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String timestamp;
+
+        private Row(String placer, String material, String entityUUID, int x, int y, int z, String timestamp) {
+            this.placer = placer;
+            this.material = material;
+            this.entityUUID = entityUUID;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The coordinates of the restored rows, packed in a growing int array.
+     */
+    private static class Coordinates {
+        private int[] values = new int[3 * 64];
+        private int size;
+
+        private void add(int x, int y, int z) {
+            if(3 * size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+
+            values[3 * size] = x;
+            values[3 * size + 1] = y;
+            values[3 * size + 2] = z;
+            size++;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int x(int i) {
+            return values[3 * i];
+        }
+
+        private int y(int i) {
+            return values[3 * i + 1];
+        }
+
+        private int z(int i) {
+            return values[3 * i + 2];
+        }
+    }
+}
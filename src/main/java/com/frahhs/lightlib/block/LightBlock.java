@@ -27,6 +27,7 @@ public class LightBlock extends LightProvider {
     private ItemDisplay itemDisplay;
     private Location location;
     private final Player placer;
+    private final UUID placerUUID;
 
     /**
      * Constructs a new LightBlock.
@@ -38,6 +39,21 @@ public class LightBlock extends LightProvider {
         this.item = item;
         this.location = location;
         this.placer = placer;
+        this.placerUUID = placer == null ? null : placer.getUniqueId();
+    }
+
+    /**
+     * Constructs a LightBlock read from the database, the placer can be offline.
+     *
+     * @param item The Light item associated with this block.
+     * @param location The location of the block.
+     * @param placerUUID The UUID of the player who placed the block.
+     */
+    protected LightBlock(LightItem item, Location location, UUID placerUUID) {
+        this.item = item;
+        this.location = location;
+        this.placer = placerUUID == null ? null : Bukkit.getPlayer(placerUUID);
+        this.placerUUID = placerUUID;
     }
 
     /**
@@ -97,6 +113,15 @@ public class LightBlock extends LightProvider {
         return placer;
     }
 
+    /**
+     * Retrieves the UUID of the player who placed the block, also when the player is offline.
+     *
+     * @return The UUID of the placer.
+     */
+    public UUID getPlacerUniqueId() {
+        return placerUUID;
+    }
+
     /**
      * Places the Light block at the specified location.
      *
@@ -119,19 +144,31 @@ public class LightBlock extends LightProvider {
             direction = 270;
         }
 
-        Location location = this.location.clone();
+        setItemDisplay(spawnItemDisplay(item, this.location, direction + 180));
+
+        save(placer);
+    }
+
+    /**
+     * Spawns the item display of a Light block.
+     *
+     * @param item The Light item shown by the display.
+     * @param blockLocation The location of the block.
+     * @param yaw The yaw of the display.
+     * @return The spawned ItemDisplay.
+     */
+    protected static ItemDisplay spawnItemDisplay(LightItem item, Location blockLocation, float yaw) {
+        Location location = blockLocation.clone();
         location.add(0.5, 0.5, 0.5);
-        location.setYaw(direction + 180);
+        location.setYaw(yaw);
 
         assert location.getWorld() != null;
         final ItemDisplay itemDisplay = location.getWorld().spawn(location, ItemDisplay.class);
 
-        itemDisplay.setItemStack(item.getItemStack());
+        itemDisplay.setItemStack(item.getTemplateStack());
         itemDisplay.setPersistent(true);
         itemDisplay.setBrightness(new Display.Brightness(15, 15));
-        setItemDisplay(itemDisplay);
-
-        save(placer);
+        return itemDisplay;
     }
 
     /**
@@ -184,8 +221,12 @@ public class LightBlock extends LightProvider {
             ps.setInt(6, location.getBlockY());
             ps.setInt(7, location.getBlockZ());
             ps.executeUpdate();
+            long generation = LightPlugin.getLightDatabase().incrementBlocksGeneration();
             dbConnection.commit();
+            LightPlugin.getLightDatabase().commitBlocksGeneration(generation);
             ps.close();
+            LightPlugin.getBlockManager().indexPlaced(location, generation);
+            LightPlugin.getBlockManager().getPlacerIndex().increment(placer.getUniqueId(), item.getIdentifier());
         } catch (Exception e) {
             logger.error("%s: %s", e.getClass().getName(), e.getMessage());
         }
@@ -203,8 +244,12 @@ public class LightBlock extends LightProvider {
             ps.setInt(3, location.getBlockY());
             ps.setInt(4, location.getBlockZ());
             ps.executeUpdate();
+            long generation = LightPlugin.getLightDatabase().incrementBlocksGeneration();
             dbConnection.commit();
+            LightPlugin.getLightDatabase().commitBlocksGeneration(generation);
             ps.close();
+            LightPlugin.getBlockManager().indexRemoved(location, generation);
+            LightPlugin.getBlockManager().getPlacerIndex().decrement(placerUUID, item.getIdentifier());
         } catch (Exception e) {
             logger.error("%s: %s", e.getClass().getName(), e.getMessage());
         }
@@ -217,6 +262,10 @@ public class LightBlock extends LightProvider {
      * @return True if the block is a LightBlock, false otherwise.
      */
     public static boolean isLightBlock(Block block) {
+        // The index answers the negative case without querying the database
+        if(!LightPlugin.getBlockManager().mayBeLightBlock(block.getLocation()))
+            return false;
+
         Connection dbConnection = LightPlugin.getLightDatabase().getConnection();
 
         try {
@@ -245,6 +294,10 @@ public class LightBlock extends LightProvider {
      * @return True if the location corresponds to a LightBlock, false otherwise.
      */
     public static boolean isLightBlock(Location location) {
+        // The index answers the negative case without querying the database
+        if(!LightPlugin.getBlockManager().mayBeLightBlock(location))
+            return false;
+
         Connection dbConnection = LightPlugin.getLightDatabase().getConnection();
 
         try {
@@ -319,13 +372,13 @@ public class LightBlock extends LightProvider {
                 LightItem item = itemManager.get(identifier);
 
                 String placer = rs.getString("placer");
-                Player player = Bukkit.getPlayer(UUID.fromString(placer));
+                UUID placerUUID = placer == null ? null : UUID.fromString(placer);
 
-                LightBlock block = new LightBlock(item, location, player);
+                LightBlock block = new LightBlock(item, location, placerUUID);
 
-                // Entity can be null if someone manually destroyed it
+                // Entity can be null if someone manually destroyed it or it is still pending
                 String entityUUID = rs.getString("entityUUID");
-                Entity itemDisplay = Bukkit.getEntity(UUID.fromString(entityUUID));
+                Entity itemDisplay = entityUUID.isEmpty() ? null : Bukkit.getEntity(UUID.fromString(entityUUID));
                 if (itemDisplay != null) {
                     if (!itemDisplay.getType().equals(EntityType.ITEM_DISPLAY)) {
                         throw new RuntimeException("Database UUID is not an ItemDisplay UUID");
@@ -369,10 +422,10 @@ public class LightBlock extends LightProvider {
                 int blockZ = rs.getInt("blockZ");
 
                 String placer = rs.getString("placer");
-                Player player = Bukkit.getPlayer(UUID.fromString(placer));
+                UUID placerUUID = placer == null ? null : UUID.fromString(placer);
 
                 Location location = new Location(world, blockX, blockY, blockZ);
-                LightBlock block = new LightBlock(item, location, player);
+                LightBlock block = new LightBlock(item, location, placerUUID);
 
                 // Entity can be null if someone manually destroyed it
                 String itemDisplayUUID = rs.getString("entityUUID");
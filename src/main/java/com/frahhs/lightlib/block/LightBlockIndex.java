@@ -0,0 +1,364 @@
+package com.frahhs.lightlib.block;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Off-heap index of the placed Light blocks, stored in a memory-mapped file.
+ * <p>
+ * The index is an open-addressing hash table over packed (world, x, y, z) keys.
+ * It only answers if a location may hold a Light block: worlds are stored as
+ * the hash of their name and coordinates are packed, so collisions can only
+ * produce false positives, which are confirmed by the database. Every slot
+ * counts the rows sharing its key, worlds whose names collide included, and
+ * it is freed only when the last of them is removed.
+ * <p>
+ * The file header stores the BlocksPlaced generation it was written for,
+ * the index is trusted on restart only if it matches the database one.
+ */
+public class LightBlockIndex {
+    private static final int MAGIC = 0x4C424958;
+    private static final int VERSION = 2;
+
+    // Header layout
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int USED_OFFSET = 16;
+    private static final int GENERATION_OFFSET = 24;
+
+    // Slot layout: packed coordinates, world hash, slot state
+    private static final int SLOT_SIZE = 16;
+    private static final int WORLD_OFFSET = 8;
+    private static final int STATE_OFFSET = 12;
+
+    // Slot states, a full slot holds the number of rows with its key
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+
+    private static final int MIN_CAPACITY = 1 << 12;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private int used;
+
+    /**
+     * Constructs a new LightBlockIndex backed by the given file.
+     *
+     * @param file The file where the index is mapped.
+     */
+    public LightBlockIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Maps the existing index file.
+     *
+     * @param generation The current BlocksPlaced generation of the database.
+     * @return True if the file was mapped and is up-to-date, false if it must be rebuilt.
+     * @throws IOException If an I/O error occurs while mapping the file.
+     */
+    public synchronized boolean open(long generation) throws IOException {
+        if(!file.exists() || file.length() < HEADER_SIZE)
+            return false;
+
+        MappedByteBuffer mapped = map(file, file.length());
+        if(mapped.getInt(MAGIC_OFFSET) != MAGIC || mapped.getInt(VERSION_OFFSET) != VERSION)
+            return false;
+
+        int mappedCapacity = mapped.getInt(CAPACITY_OFFSET);
+        if(Integer.bitCount(mappedCapacity) != 1 || fileLength(mappedCapacity) != file.length())
+            return false;
+
+        if(mapped.getLong(GENERATION_OFFSET) != generation)
+            return false;
+
+        buffer = mapped;
+        capacity = mappedCapacity;
+        size = mapped.getInt(SIZE_OFFSET);
+        used = mapped.getInt(USED_OFFSET);
+        return true;
+    }
+
+    /**
+     * Rebuilds the index file streaming all the rows of the BlocksPlaced table.
+     *
+     * @param connection The database connection.
+     * @param generation The current BlocksPlaced generation of the database.
+     * @throws IOException If an I/O error occurs while writing the file.
+     * @throws SQLException If an error occurs while reading the table.
+     */
+    public synchronized void rebuild(Connection connection, long generation) throws IOException, SQLException {
+        int rows = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM BlocksPlaced;")) {
+            if(rs.next())
+                rows = rs.getInt(1);
+        }
+
+        create(file, capacityFor(rows));
+
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT world, blockX, blockY, blockZ FROM BlocksPlaced;")) {
+            while (rs.next())
+                add(worldKey(rs.getString("world")), pack(rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ")));
+        }
+
+        writeHeader(generation);
+        buffer.force();
+    }
+
+    /**
+     * Checks if the index contains the given location.
+     *
+     * @param world The world name.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @return True if a Light block may be placed there, false if it is surely not.
+     */
+    public synchronized boolean contains(String world, int x, int y, int z) {
+        return find(worldKey(world), pack(x, y, z)) >= 0;
+    }
+
+    /**
+     * Adds a location to the index.
+     *
+     * @param world The world name.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @param generation The BlocksPlaced generation after the insert.
+     * @throws IOException If the index has to grow and the new file cannot be written.
+     */
+    public synchronized void add(String world, int x, int y, int z, long generation) throws IOException {
+        int worldKey = worldKey(world);
+        long key = pack(x, y, z);
+
+        int slot = find(worldKey, key);
+        if(slot >= 0) {
+            // Another row with the same key, like a block of a world whose name collides
+            int offset = slotOffset(slot) + STATE_OFFSET;
+            buffer.putInt(offset, buffer.getInt(offset) + 1);
+        } else {
+            if((used + 1) * 10L > capacity * 6L)
+                resize(size + 1);
+            insert(worldKey, key, 1);
+        }
+
+        writeHeader(generation);
+    }
+
+    /**
+     * Removes a location from the index.
+     *
+     * @param world The world name.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @param generation The BlocksPlaced generation after the delete.
+     */
+    public synchronized void remove(String world, int x, int y, int z, long generation) {
+        int slot = find(worldKey(world), pack(x, y, z));
+        if(slot >= 0) {
+            int offset = slotOffset(slot) + STATE_OFFSET;
+            int rows = buffer.getInt(offset) - 1;
+            if(rows > 0) {
+                buffer.putInt(offset, rows);
+            } else {
+                buffer.putInt(offset, REMOVED);
+                size--;
+            }
+        }
+
+        writeHeader(generation);
+    }
+
+    /**
+     * Removes all the locations of a world from the index.
+     * It must not be used when another world name has the same hash,
+     * the index must be rebuilt instead.
+     *
+     * @param world The world name.
+     * @param generation The BlocksPlaced generation after the delete.
+     */
+    public synchronized void removeWorld(String world, long generation) {
+        int worldKey = worldKey(world);
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slotOffset(slot);
+            if(buffer.getInt(offset + STATE_OFFSET) > 0 && buffer.getInt(offset + WORLD_OFFSET) == worldKey) {
+                buffer.putInt(offset + STATE_OFFSET, REMOVED);
+                size--;
+            }
+        }
+
+        writeHeader(generation);
+    }
+
+    /**
+     * Retrieves the number of locations in the index.
+     *
+     * @return The number of indexed locations.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Flushes the mapped file to the disk.
+     */
+    public synchronized void close() {
+        if(buffer != null)
+            buffer.force();
+    }
+
+    private int find(int worldKey, long key) {
+        int mask = capacity - 1;
+        int slot = hash(worldKey, key) & mask;
+
+        for (int probes = 0; probes < capacity; probes++) {
+            int offset = slotOffset(slot);
+            int state = buffer.getInt(offset + STATE_OFFSET);
+
+            if(state == EMPTY)
+                return -1;
+
+            if(state > 0 && buffer.getLong(offset) == key && buffer.getInt(offset + WORLD_OFFSET) == worldKey)
+                return slot;
+
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Counts a row of the rebuild, the capacity is already sized for all of them
+    private void add(int worldKey, long key) {
+        int slot = find(worldKey, key);
+        if(slot >= 0) {
+            int offset = slotOffset(slot) + STATE_OFFSET;
+            buffer.putInt(offset, buffer.getInt(offset) + 1);
+            return;
+        }
+        insert(worldKey, key, 1);
+    }
+
+    private void insert(int worldKey, long key, int rows) {
+        int mask = capacity - 1;
+        int slot = hash(worldKey, key) & mask;
+
+        while (true) {
+            int offset = slotOffset(slot);
+            int state = buffer.getInt(offset + STATE_OFFSET);
+
+            if(state <= 0) {
+                buffer.putLong(offset, key);
+                buffer.putInt(offset + WORLD_OFFSET, worldKey);
+                buffer.putInt(offset + STATE_OFFSET, rows);
+                if(state == EMPTY)
+                    used++;
+                size++;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void resize(int entries) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        MappedByteBuffer old = buffer;
+        int oldCapacity = capacity;
+
+        create(tmp, capacityFor(entries));
+
+        // Rehash the live slots, tombstones are dropped
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            int rows = old.getInt(offset + STATE_OFFSET);
+            if(rows > 0)
+                insert(old.getInt(offset + WORLD_OFFSET), old.getLong(offset), rows);
+        }
+
+        writeHeader(old.getLong(GENERATION_OFFSET));
+        buffer.force();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void create(File target, int newCapacity) throws IOException {
+        File parent = target.getParentFile();
+        if(parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Unable to create the directory " + parent.getPath());
+
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            // Truncate first, so the new slots are zeroed
+            raf.setLength(0);
+            raf.setLength(fileLength(newCapacity));
+        }
+
+        buffer = map(target, fileLength(newCapacity));
+        capacity = newCapacity;
+        size = 0;
+        used = 0;
+
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+    }
+
+    private void writeHeader(long generation) {
+        // Generation is written last, a crash in between leaves the index stale
+        buffer.putInt(SIZE_OFFSET, size);
+        buffer.putInt(USED_OFFSET, used);
+        buffer.putLong(GENERATION_OFFSET, generation);
+    }
+
+    private static MappedByteBuffer map(File target, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && entries * 2L > capacity)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static long fileLength(int capacity) {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int worldKey(String world) {
+        return world.hashCode();
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    private static int hash(int worldKey, long key) {
+        long h = (key ^ ((long) worldKey << 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
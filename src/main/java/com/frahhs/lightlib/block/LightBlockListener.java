@@ -14,6 +14,9 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.ItemStack;
 
@@ -23,17 +26,28 @@ public class LightBlockListener extends LightListener {
         ItemManager itemManager = LightPlugin.getItemsManager();
         ItemStack item = e.getItemInHand();
 
-        // Check if is a Light item.
-        if(!itemManager.isRegistered(item))
+        // Check if the material can be a Light item.
+        if(!itemManager.isLightMaterial(item.getType()))
             return;
 
         // Instance of the Light item.
         LightItem lightItem = itemManager.get(item);
 
+        // Check if is a Light item.
+        if(lightItem == null)
+            return;
+
         // Check if is a Light block.
         if(!lightItem.getVanillaMaterial().isBlock())
             return;
 
+        // Check the placement limits of the player.
+        if(LightPlugin.getBlockManager().isLimitReached(e.getPlayer(), lightItem)) {
+            e.getPlayer().sendMessage(messages.getMessageOrDefault(e.getPlayer(), "general.placement_limit", "&cYou cannot place more of these blocks."));
+            e.setCancelled(true);
+            return;
+        }
+
         // Instance of the Light block.
         LightBlock block = new LightBlock(lightItem, e.getBlock().getLocation().clone(), e.getPlayer());
 
@@ -59,6 +73,10 @@ public class LightBlockListener extends LightListener {
     public void onBreak(BlockBreakEvent e) {
         ItemManager itemManager = LightPlugin.getItemsManager();
 
+        // Check if the material can be a Light block
+        if(!itemManager.isLightBlockMaterial(e.getBlock().getType()))
+            return;
+
         // Check if is a Light item
         if(!LightBlock.isLightBlock(e.getBlock().getLocation()))
             return;
@@ -100,6 +118,10 @@ public class LightBlockListener extends LightListener {
         if(e.getClickedBlock() == null)
             return;
 
+        // Check if the material can be a Light block
+        if(!LightPlugin.getItemsManager().isLightBlockMaterial(e.getClickedBlock().getType()))
+            return;
+
         if(!LightBlock.isLightBlock(e.getClickedBlock())) {
             return;
         }
@@ -115,4 +137,30 @@ public class LightBlockListener extends LightListener {
             e.setCancelled(true);
         }
     }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent e) {
+        ColdStorage coldStorage = LightPlugin.getBlockManager().getColdStorage();
+
+        // Bring back the archived Light blocks of the world
+        coldStorage.touch(e.getWorld().getName());
+        coldStorage.restore(e.getWorld().getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent e) {
+        if(e.isCancelled())
+            return;
+
+        LightPlugin.getBlockManager().getColdStorage().touch(e.getWorld().getName());
+    }
+
+    @EventHandler
+    public void onEntitiesLoad(EntitiesLoadEvent e) {
+        // Spawn the item displays of the cloned Light blocks
+        LightPlugin.getBlockManager().spawnPendingDisplays(e.getChunk(), e.getEntities());
+
+        // Break the Light blocks removed while the chunk was unloaded
+        LightPlugin.getBlockManager().clearPendingRemovals(e.getChunk());
+    }
 }
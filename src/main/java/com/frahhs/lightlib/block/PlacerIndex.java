@@ -0,0 +1,147 @@
+package com.frahhs.lightlib.block;
+
+import com.frahhs.lightlib.LightPlugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory secondary index of the placed Light blocks by placer.
+ * <p>
+ * It keeps the number of Light blocks placed by every player, in total and
+ * per item identifier, maintained incrementally on every place and remove.
+ * Only the blocks of the BlocksPlaced table are counted, the blocks moved to
+ * the cold storage are counted again when their world is restored.
+ */
+public class PlacerIndex {
+    private final Map<UUID, PlacerCount> placers;
+
+    /**
+     * Constructs a new empty PlacerIndex.
+     */
+    public PlacerIndex() {
+        placers = new HashMap<>();
+    }
+
+    /**
+     * Loads the counts of all the placers from the database.
+     *
+     * @param connection The database connection.
+     * @throws SQLException If an error occurs while reading the BlocksPlaced table.
+     */
+    public void load(Connection connection) throws SQLException {
+        placers.clear();
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT placer, material, COUNT(*) AS amount FROM BlocksPlaced GROUP BY placer, material;");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next())
+                add(rs.getString("placer"), rs.getString("material"), rs.getInt("amount"));
+        }
+    }
+
+    /**
+     * Adds or subtracts the counts of all the Light blocks of a world.
+     *
+     * @param connection The database connection.
+     * @param world The world name.
+     * @param sign 1 to add the world blocks, -1 to subtract them.
+     * @throws SQLException If an error occurs while reading the BlocksPlaced table.
+     */
+    public void adjustWorld(Connection connection, String world, int sign) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT placer, material, COUNT(*) AS amount FROM BlocksPlaced WHERE world = ? GROUP BY placer, material;")) {
+            ps.setString(1, world);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    add(rs.getString("placer"), rs.getString("material"), sign * rs.getInt("amount"));
+            }
+        }
+    }
+
+    /**
+     * Counts a Light block placed by a player.
+     *
+     * @param placer The UUID of the placer.
+     * @param identifier The identifier of the Light item.
+     */
+    public void increment(UUID placer, String identifier) {
+        if(placer != null)
+            add(placer, identifier, 1);
+    }
+
+    /**
+     * Discounts a Light block placed by a player.
+     *
+     * @param placer The UUID of the placer.
+     * @param identifier The identifier of the Light item.
+     */
+    public void decrement(UUID placer, String identifier) {
+        if(placer != null)
+            add(placer, identifier, -1);
+    }
+
+    /**
+     * Removes all the counts of a player.
+     *
+     * @param placer The UUID of the placer.
+     */
+    public void remove(UUID placer) {
+        placers.remove(placer);
+    }
+
+    /**
+     * Retrieves how many Light blocks a player placed.
+     *
+     * @param placer The UUID of the placer.
+     * @return The number of placed Light blocks.
+     */
+    public int getCount(UUID placer) {
+        PlacerCount count = placers.get(placer);
+        return count == null ? 0 : count.total;
+    }
+
+    /**
+     * Retrieves how many Light blocks of an item a player placed.
+     *
+     * @param placer The UUID of the placer.
+     * @param identifier The identifier of the Light item.
+     * @return The number of placed Light blocks of the item.
+     */
+    public int getCount(UUID placer, String identifier) {
+        PlacerCount count = placers.get(placer);
+        if(count == null)
+            return 0;
+
+        Integer amount = count.items.get(identifier);
+        return amount == null ? 0 : amount;
+    }
+
+    private void add(String placer, String identifier, int amount) {
+        if(placer == null)
+            return;
+
+        try {
+            add(UUID.fromString(placer), identifier, amount);
+        } catch (IllegalArgumentException e) {
+            LightPlugin.getLightLogger().warning("Invalid placer %s in the BlocksPlaced table.", placer);
+        }
+    }
+
+    private void add(UUID placer, String identifier, int amount) {
+        PlacerCount count = placers.computeIfAbsent(placer, k -> new PlacerCount());
+        count.total += amount;
+        count.items.merge(identifier, amount, Integer::sum);
+
+        if(count.total <= 0)
+            placers.remove(placer);
+    }
+
+    private static class PlacerCount {
+        private int total;
+        private final Map<String, Integer> items = new HashMap<>();
+    }
+}
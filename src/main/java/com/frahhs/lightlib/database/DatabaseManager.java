@@ -5,6 +5,8 @@ import com.frahhs.lightlib.LightPlugin;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Objects;
@@ -19,6 +21,8 @@ public class DatabaseManager {
     private final String mysql_username;
     private final String mysql_password;
     private Connection dbConnection = null;
+    private DBType dbType = null;
+    private long blocksGeneration = 0;
 
     /**
      * Enum representing the types of supported databases.
@@ -63,6 +67,9 @@ public class DatabaseManager {
         // Setup tables
         blocksPlacedTable();
         recipeTable();
+        metaTable();
+        worldActivityTable();
+        uniqueItemsTable();
     }
 
     /**
@@ -74,6 +81,50 @@ public class DatabaseManager {
         return dbConnection;
     }
 
+    /**
+     * Retrieves the type of the connected database.
+     *
+     * @return The database type, null if the connection failed.
+     */
+    public DBType getType() {
+        return dbType;
+    }
+
+    /**
+     * Retrieves the BlocksPlaced generation, it is incremented on every change of the table.
+     *
+     * @return The current BlocksPlaced generation.
+     */
+    public long getBlocksGeneration() {
+        return blocksGeneration;
+    }
+
+    /**
+     * Increments the BlocksPlaced generation inside the current transaction.
+     * It must be called before committing a change of the BlocksPlaced table,
+     * the returned generation is applied with {@link #commitBlocksGeneration(long)}
+     * once the transaction is committed.
+     *
+     * @return The BlocksPlaced generation of the transaction.
+     * @throws SQLException If an error occurs while updating the generation.
+     */
+    public long incrementBlocksGeneration() throws SQLException {
+        PreparedStatement ps = dbConnection.prepareStatement("UPDATE LightMeta SET value = value + 1 WHERE name = 'blocks_generation';");
+        ps.executeUpdate();
+        ps.close();
+        return blocksGeneration + 1;
+    }
+
+    /**
+     * Applies the generation of a committed transaction.
+     * A rolled back transaction must not apply its generation, the persisted one is unchanged.
+     *
+     * @param generation The generation returned by {@link #incrementBlocksGeneration()}.
+     */
+    public void commitBlocksGeneration(long generation) {
+        blocksGeneration = Math.max(blocksGeneration, generation);
+    }
+
     /**
      * Creates a connection to the specified database type.
      *
@@ -93,6 +144,7 @@ public class DatabaseManager {
                 dbConnection = DriverManager.getConnection("jdbc:mysql://" + mysql_address + ":" + mysql_port, mysql_username, mysql_password);
                 dbConnection.setAutoCommit(false);
             }
+            this.dbType = databaseType;
             LightPlugin.getLightLogger().fine("Database connection created.");
         } catch (ClassNotFoundException | SQLException e) {
             LightPlugin.getLightLogger().error("Error while creating the database connection.\n%s", e);
@@ -145,6 +197,26 @@ public class DatabaseManager {
         } catch ( Exception e ) {
             LightPlugin.getLightLogger().error("Error while creating BlocksPlaced table, %s", e);
         }
+
+        // The blocks are selected by placer for the limits and the removals
+        try {
+            stmt = dbConnection.createStatement();
+            if (dbType == DBType.SQLITE)
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS BlocksPlacedPlacer ON BlocksPlaced (placer);");
+            else
+                stmt.executeUpdate("CREATE INDEX BlocksPlacedPlacer ON BlocksPlaced (placer);");
+            dbConnection.commit();
+            stmt.close();
+        } catch ( SQLException e ) {
+            // MySQL has no IF NOT EXISTS for indexes, 1061 is a duplicate key name
+            if (e.getErrorCode() != 1061)
+                LightPlugin.getLightLogger().error("Error while creating the BlocksPlaced placer index, %s", e);
+            try {
+                dbConnection.rollback();
+            } catch (SQLException ex) {
+                LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", ex);
+            }
+        }
     }
 
     /**
@@ -171,4 +243,81 @@ public class DatabaseManager {
             LightPlugin.getLightLogger().error("Error while creating ShapedRecipe table, %s", e);
         }
     }
+
+    /**
+     * Creates the meta table if it does not exist and reads the BlocksPlaced generation.
+     */
+    public void metaTable() {
+        LightPlugin.getLightLogger().fine("Handling LightMeta table...");
+        Statement stmt;
+
+        try {
+            stmt = dbConnection.createStatement();
+            String sql = "CREATE TABLE IF NOT EXISTS LightMeta (" +
+                         "name CHAR(100) PRIMARY KEY,"           +
+                         "value BIGINT NOT NULL)"                ;
+            stmt.executeUpdate(sql);
+
+            ResultSet rs = stmt.executeQuery("SELECT value FROM LightMeta WHERE name = 'blocks_generation';");
+            if (rs.next()) {
+                blocksGeneration = rs.getLong("value");
+            } else {
+                stmt.executeUpdate("INSERT INTO LightMeta (name, value) VALUES ('blocks_generation', 0);");
+                blocksGeneration = 0;
+            }
+            rs.close();
+
+            dbConnection.commit();
+            stmt.close();
+            LightPlugin.getLightLogger().fine("Handled LightMeta table.");
+        } catch ( Exception e ) {
+            LightPlugin.getLightLogger().error("Error while creating LightMeta table, %s", e);
+        }
+    }
+
+    /**
+     * Creates the world activity table if it does not exist.
+     */
+    public void worldActivityTable() {
+        LightPlugin.getLightLogger().fine("Handling WorldActivity table...");
+        Statement stmt;
+
+        try {
+            stmt = dbConnection.createStatement();
+            String sql = "CREATE TABLE IF NOT EXISTS WorldActivity (" +
+                         "world CHAR(100) PRIMARY KEY,"              +
+                         "lastLoaded BIGINT NOT NULL)"               ;
+            stmt.executeUpdate(sql);
+            dbConnection.commit();
+            stmt.close();
+            LightPlugin.getLightLogger().fine("Handled WorldActivity table.");
+        } catch ( Exception e ) {
+            LightPlugin.getLightLogger().error("Error while creating WorldActivity table, %s", e);
+        }
+    }
+
+    /**
+     * Creates the unique items table if it does not exist.
+     */
+    public void uniqueItemsTable() {
+        LightPlugin.getLightLogger().fine("Handling UniqueItems table...");
+        Statement stmt;
+
+        try {
+            stmt = dbConnection.createStatement();
+            String sql = "CREATE TABLE IF NOT EXISTS UniqueItems (" +
+                         "idMost BIGINT NOT NULL,"                  +
+                         "idLeast BIGINT NOT NULL,"                 +
+                         "item CHAR(100),"                          +
+                         "holder CHAR(100),"                        +
+                         "lastSeen BIGINT NOT NULL,"                +
+                         "PRIMARY KEY (idMost, idLeast))"           ;
+            stmt.executeUpdate(sql);
+            dbConnection.commit();
+            stmt.close();
+            LightPlugin.getLightLogger().fine("Handled UniqueItems table.");
+        } catch ( Exception e ) {
+            LightPlugin.getLightLogger().error("Error while creating UniqueItems table, %s", e);
+        }
+    }
 }
@@ -0,0 +1,454 @@
+package com.frahhs.lightlib.database;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.block.BlockManager;
+import com.frahhs.lightlib.block.ColdStorage;
+import com.frahhs.lightlib.item.unique.UniqueItemRegistry;
+import com.frahhs.lightlib.util.recipe.RecipeManager;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Class for exporting and importing all the LightLib data as a binary snapshot.
+ * <p>
+ * A snapshot is a gzip stream of versioned sections, the BlocksPlaced rows are
+ * written ordered by world and chunk. Both directions read the data through
+ * forward-only cursors and batched statements, so the memory usage does not
+ * depend on the number of rows and a snapshot can be moved between SQLite and MySQL.
+ * <p>
+ * The Light blocks in the cold storage archives are part of the snapshot, they are
+ * imported back in the BlocksPlaced table. The LightMeta table only holds the
+ * generation of the local BlocksPlaced table, it is bumped by the import instead.
+ */
+public class SnapshotManager {
+    private static final int MAGIC = 0x4C4C5353;
+    private static final int VERSION = 2;
+    private static final int BATCH_SIZE = 1000;
+
+    // Sections
+    private static final byte END = 0;
+    private static final byte BLOCKS_PLACED = 1;
+    private static final byte SHAPED_RECIPE = 2;
+    private static final byte COLD_STORAGE = 3;
+    private static final byte WORLD_ACTIVITY = 4;
+    private static final byte UNIQUE_ITEMS = 5;
+
+    // BlocksPlaced records
+    private static final byte WORLD = 1;
+    private static final byte CHUNK = 2;
+    private static final byte BLOCK = 3;
+
+    private final DatabaseManager database;
+    private final Connection connection;
+
+    /**
+     * Constructs a new SnapshotManager.
+     *
+     * @param database The DatabaseManager of the connection to use.
+     */
+    public SnapshotManager(DatabaseManager database) {
+        this.database = database;
+        this.connection = database.getConnection();
+    }
+
+    /**
+     * Exports all the LightLib data to a snapshot file.
+     *
+     * @param file The snapshot file, it is replaced if it already exists.
+     * @throws IOException If an I/O error occurs while writing the file.
+     * @throws SQLException If an error occurs while reading the database.
+     */
+    public void exportSnapshot(File file) throws IOException, SQLException {
+        LightPlugin.getLightLogger().fine("Exporting snapshot to %s...", file.getPath());
+        File tmp = new File(file.getPath() + ".tmp");
+        long blocks;
+        long recipes;
+
+        // The ids issued since the last flush are part of the snapshot
+        UniqueItemRegistry uniqueItemRegistry = LightPlugin.getUniqueItemRegistry();
+        if(uniqueItemRegistry != null)
+            uniqueItemRegistry.flush();
+
+        try (DataOutputStream out = new DataOutputStream(new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+
+            blocks = exportBlocksPlaced(out);
+            blocks += exportColdStorage(out);
+            recipes = exportShapedRecipes(out);
+            exportWorldActivity(out);
+            exportUniqueItems(out);
+
+            out.writeByte(END);
+        } catch (IOException | SQLException e) {
+            if(tmp.exists() && !tmp.delete())
+                LightPlugin.getLightLogger().warning("Unable to delete %s.", tmp.getPath());
+            throw e;
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LightPlugin.getLightLogger().fine("Exported snapshot, %d blocks and %d recipes.", blocks, recipes);
+    }
+
+    /**
+     * Imports a snapshot file, replacing all the LightLib data of the database.
+     * The import runs in a single transaction, on failure the database is left untouched.
+     * Once committed, the cold storage archives are dropped, their blocks are in the snapshot.
+     *
+     * @param file The snapshot file.
+     * @throws IOException If an I/O error occurs or the file is not a valid snapshot.
+     * @throws SQLException If an error occurs while writing the database.
+     */
+    public void importSnapshot(File file) throws IOException, SQLException {
+        LightPlugin.getLightLogger().fine("Importing snapshot from %s...", file.getPath());
+        long blocks = 0;
+        long recipes = 0;
+
+        try (DataInputStream in = new DataInputStream(new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException("Not a LightLib snapshot: " + file.getPath());
+            int version = in.readInt();
+            if(version > VERSION)
+                throw new IOException(String.format("Snapshot version %d is not supported, the latest is %d.", version, VERSION));
+            in.readLong();
+
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("DELETE FROM BlocksPlaced;");
+                stmt.executeUpdate("DELETE FROM ShapedRecipe;");
+            }
+
+            byte section;
+            while ((section = in.readByte()) != END) {
+                switch (section) {
+                    case BLOCKS_PLACED:
+                        blocks += importBlocksPlaced(in);
+                        break;
+                    case COLD_STORAGE:
+                        blocks += importBlocksPlaced(in);
+                        break;
+                    case SHAPED_RECIPE:
+                        recipes += importShapedRecipes(in);
+                        break;
+                    case WORLD_ACTIVITY:
+                        importWorldActivity(in);
+                        break;
+                    case UNIQUE_ITEMS:
+                        importUniqueItems(in);
+                        break;
+                    default:
+                        throw new IOException("Unknown snapshot section " + section);
+                }
+            }
+
+            long generation = database.incrementBlocksGeneration();
+            connection.commit();
+            database.commitBlocksGeneration(generation);
+        } catch (IOException | SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+
+        BlockManager blockManager = LightPlugin.getBlockManager();
+        if(blockManager != null) {
+            blockManager.getColdStorage().deleteArchives();
+            blockManager.rebuildIndex();
+            blockManager.loadPlacerIndex();
+            blockManager.reloadPendingDisplays();
+        }
+
+        RecipeManager recipeManager = LightPlugin.getRecipeManager();
+        if(recipeManager != null)
+            recipeManager.load();
+
+        UniqueItemRegistry uniqueItemRegistry = LightPlugin.getUniqueItemRegistry();
+        if(uniqueItemRegistry != null)
+            uniqueItemRegistry.reload();
+
+        LightPlugin.getLightLogger().fine("Imported snapshot, %d blocks and %d recipes.", blocks, recipes);
+    }
+
+    private long exportBlocksPlaced(DataOutputStream out) throws IOException, SQLException {
+        out.writeByte(BLOCKS_PLACED);
+
+        String chunkX = database.getType() == DatabaseManager.DBType.MYSQL ? "FLOOR(blockX / 16)" : "(blockX >> 4)";
+        String chunkZ = database.getType() == DatabaseManager.DBType.MYSQL ? "FLOOR(blockZ / 16)" : "(blockZ >> 4)";
+        String sql = "SELECT placer, material, entityUUID, world, blockX, blockY, blockZ, timestamp FROM BlocksPlaced " +
+                     "ORDER BY world, " + chunkX + ", " + chunkZ + ";";
+
+        long rows = 0;
+        try (Statement stmt = openCursor(); ResultSet rs = stmt.executeQuery(sql)) {
+            BlockWriter writer = new BlockWriter(out);
+
+            while (rs.next()) {
+                writer.write(rs.getString("world"), rs.getString("placer"), rs.getString("material"), rs.getString("entityUUID"),
+                             rs.getInt("blockX"), rs.getInt("blockY"), rs.getInt("blockZ"), rs.getString("timestamp"));
+                rows++;
+            }
+        }
+
+        out.writeByte(END);
+        return rows;
+    }
+
+    private long exportColdStorage(DataOutputStream out) throws IOException {
+        out.writeByte(COLD_STORAGE);
+
+        // The archives use the BlocksPlaced records, each archive is already grouped by world
+        long[] rows = new long[1];
+        BlockManager blockManager = LightPlugin.getBlockManager();
+        if(blockManager != null) {
+            ColdStorage coldStorage = blockManager.getColdStorage();
+            BlockWriter writer = new BlockWriter(out);
+
+            for (String world : coldStorage.getArchivedWorlds()) {
+                coldStorage.readArchive(world, (placer, material, entityUUID, x, y, z, timestamp) -> {
+                    writer.write(world, placer, material, entityUUID, x, y, z, timestamp);
+                    rows[0]++;
+                });
+            }
+        }
+
+        out.writeByte(END);
+        return rows[0];
+    }
+
+    private long importBlocksPlaced(DataInputStream in) throws IOException, SQLException {
+        String sql = "INSERT INTO BlocksPlaced (placer, material, entityUUID, world, blockX, blockY, blockZ, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+        long rows = 0;
+
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            String world = null;
+            int chunkX = 0;
+            int chunkZ = 0;
+            int batched = 0;
+
+            byte record;
+            while ((record = in.readByte()) != END) {
+                switch (record) {
+                    case WORLD:
+                        world = in.readUTF();
+                        break;
+                    case CHUNK:
+                        chunkX = in.readInt();
+                        chunkZ = in.readInt();
+                        break;
+                    case BLOCK:
+                        if(world == null)
+                            throw new IOException("Snapshot block record without a world.");
+                        ps.setString(1, readNullableUTF(in));
+                        ps.setString(2, in.readUTF());
+                        ps.setString(3, in.readUTF());
+                        ps.setString(4, world);
+                        ps.setInt(5, (chunkX << 4) | in.readByte());
+                        ps.setInt(6, in.readInt());
+                        ps.setInt(7, (chunkZ << 4) | in.readByte());
+                        ps.setString(8, readNullableUTF(in));
+                        ps.addBatch();
+                        rows++;
+
+                        if(++batched == BATCH_SIZE) {
+                            ps.executeBatch();
+                            batched = 0;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown BlocksPlaced record " + record);
+                }
+            }
+
+            if(batched > 0)
+                ps.executeBatch();
+        }
+        return rows;
+    }
+
+    private long exportShapedRecipes(DataOutputStream out) throws IOException, SQLException {
+        out.writeByte(SHAPED_RECIPE);
+
+        long rows = 0;
+        try (Statement stmt = openCursor(); ResultSet rs = stmt.executeQuery("SELECT item, pattern, ingredients FROM ShapedRecipe;")) {
+            while (rs.next()) {
+                out.writeBoolean(true);
+                out.writeUTF(rs.getString("item"));
+                writeNullableUTF(out, rs.getString("pattern"));
+                writeNullableUTF(out, rs.getString("ingredients"));
+                rows++;
+            }
+        }
+
+        out.writeBoolean(false);
+        return rows;
+    }
+
+    private long importShapedRecipes(DataInputStream in) throws IOException, SQLException {
+        long rows = 0;
+
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO ShapedRecipe (item, pattern, ingredients) VALUES (?, ?, ?);")) {
+            while (in.readBoolean()) {
+                ps.setString(1, in.readUTF());
+                ps.setString(2, readNullableUTF(in));
+                ps.setString(3, readNullableUTF(in));
+                ps.addBatch();
+                rows++;
+            }
+            ps.executeBatch();
+        }
+        return rows;
+    }
+
+    private void exportWorldActivity(DataOutputStream out) throws IOException, SQLException {
+        out.writeByte(WORLD_ACTIVITY);
+
+        try (Statement stmt = openCursor(); ResultSet rs = stmt.executeQuery("SELECT world, lastLoaded FROM WorldActivity;")) {
+            while (rs.next()) {
+                out.writeBoolean(true);
+                out.writeUTF(rs.getString("world"));
+                out.writeLong(rs.getLong("lastLoaded"));
+            }
+        }
+
+        out.writeBoolean(false);
+    }
+
+    private void importWorldActivity(DataInputStream in) throws IOException, SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM WorldActivity;");
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO WorldActivity (world, lastLoaded) VALUES (?, ?);")) {
+            int batched = 0;
+            while (in.readBoolean()) {
+                ps.setString(1, in.readUTF());
+                ps.setLong(2, in.readLong());
+                ps.addBatch();
+
+                if(++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if(batched > 0)
+                ps.executeBatch();
+        }
+    }
+
+    private void exportUniqueItems(DataOutputStream out) throws IOException, SQLException {
+        out.writeByte(UNIQUE_ITEMS);
+
+        try (Statement stmt = openCursor(); ResultSet rs = stmt.executeQuery("SELECT idMost, idLeast, item, holder, lastSeen FROM UniqueItems;")) {
+            while (rs.next()) {
+                out.writeBoolean(true);
+                out.writeLong(rs.getLong("idMost"));
+                out.writeLong(rs.getLong("idLeast"));
+                writeNullableUTF(out, rs.getString("item"));
+                writeNullableUTF(out, rs.getString("holder"));
+                out.writeLong(rs.getLong("lastSeen"));
+            }
+        }
+
+        out.writeBoolean(false);
+    }
+
+    private void importUniqueItems(DataInputStream in) throws IOException, SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM UniqueItems;");
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO UniqueItems (idMost, idLeast, item, holder, lastSeen) VALUES (?, ?, ?, ?, ?);")) {
+            int batched = 0;
+            while (in.readBoolean()) {
+                ps.setLong(1, in.readLong());
+                ps.setLong(2, in.readLong());
+                ps.setString(3, readNullableUTF(in));
+                ps.setString(4, readNullableUTF(in));
+                ps.setLong(5, in.readLong());
+                ps.addBatch();
+
+                if(++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if(batched > 0)
+                ps.executeBatch();
+        }
+    }
+
+    private Statement openCursor() throws SQLException {
+        Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        // MySQL Connector/J streams the rows only with this fetch size
+        if(database.getType() == DatabaseManager.DBType.MYSQL)
+            stmt.setFetchSize(Integer.MIN_VALUE);
+        else
+            stmt.setFetchSize(BATCH_SIZE);
+
+        return stmt;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes the BlocksPlaced records, opening a world or a chunk record when the block leaves the current one.
+     */
+    private static class BlockWriter {
+        private final DataOutputStream out;
+        private String world;
+        private int chunkX;
+        private int chunkZ;
+
+        private BlockWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void write(String world, String placer, String material, String entityUUID, int x, int y, int z, String timestamp) throws IOException {
+            if(!world.equals(this.world)) {
+                this.world = world;
+                out.writeByte(WORLD);
+                out.writeUTF(world);
+                writeChunk(x >> 4, z >> 4);
+            } else if(x >> 4 != chunkX || z >> 4 != chunkZ) {
+                writeChunk(x >> 4, z >> 4);
+            }
+
+            out.writeByte(BLOCK);
+            writeNullableUTF(out, placer);
+            out.writeUTF(material);
+            out.writeUTF(entityUUID);
+            out.writeByte(x & 15);
+            out.writeInt(y);
+            out.writeByte(z & 15);
+            writeNullableUTF(out, timestamp);
+        }
+
+        private void writeChunk(int chunkX, int chunkZ) throws IOException {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            out.writeByte(CHUNK);
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+        }
+    }
+}
@@ -2,33 +2,43 @@ package com.frahhs.lightlib.item;
 
 import com.frahhs.lightlib.LightListener;
 import com.frahhs.lightlib.LightPlugin;
+import org.bukkit.Keyed;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.inventory.CraftItemEvent;
-import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.Recipe;
 
 public class CustomRecipesListener extends LightListener {
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
     public void onCraft(CraftItemEvent e) {
+        Recipe recipe = e.getRecipe();
+
+        // Check if the result can be a Light item
+        if(!LightPlugin.getItemsManager().isLightMaterial(recipe.getResult().getType()))
+            return;
+
+        // Light recipes are registered with the item NamespacedKey
+        if(!(recipe instanceof Keyed))
+            return;
+
+        LightItem item = LightPlugin.getItemsManager().get(((Keyed) recipe).getKey());
+
+        // Check if it is a craftable custom item
+        if(item == null || !item.isCraftable())
+            return;
+
+        // Check if player have permission
         Player player = (Player) e.getWhoClicked();
-        ItemStack item = e.getRecipe().getResult();
-
-        ItemManager itemManager = LightPlugin.getItemsManager();
-
-        for(LightItem cur : itemManager.getRegisteredItems()) {
-            // Check if cur custom item is craftable
-            if(cur.isCraftable()) {
-                // Check if it is a custom item
-                if (cur.getItemStack().isSimilar(item)) {
-                    // Check if player have permission
-                    if (!player.hasPermission(String.format(LightPlugin.getOptions().getPermissionPrefix() + ".craft.%s", cur.getName().toLowerCase()))) {
-                        String message = messages.getMessage("general.no_permissions");
-                        player.sendMessage(message);
-                        e.setCancelled(true);
-                    }
-                }
-            }
+        if (!player.hasPermission(item.getCraftPermission())) {
+            String message = messages.getMessage(player, "general.no_permissions");
+            player.sendMessage(message);
+            e.setCancelled(true);
+            return;
         }
+
+        if(item.isUnique())
+            LightPlugin.getItemsManager().craftUnique(e, item);
     }
 }
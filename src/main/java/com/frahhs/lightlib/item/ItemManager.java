@@ -2,25 +2,43 @@ package com.frahhs.lightlib.item;
 
 import com.frahhs.lightlib.LightPlugin;
 import com.frahhs.lightlib.item.exception.DuplicateIdentifierException;
+import com.frahhs.lightlib.item.unique.UUIDDataType;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.CraftItemEvent;
+import org.bukkit.inventory.CraftingInventory;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.ShapedRecipe;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class for managing custom items related to Light mechanics.
+ * <p>
+ * The registered items are held in an immutable {@link ItemRegistry},
+ * replaced as a whole on every registration, so lookups never lock or iterate.
  */
 public class ItemManager {
     private final JavaPlugin plugin;
-    private final Map<String, LightItem> lightItems;
+    private volatile ItemRegistry registry;
+
+    // Items registered before the reload in progress, null if not reloading
+    private ItemRegistry previous;
+
+    // Items of the batch in progress, published as a single registry when it ends, null if none
+    private ItemRegistry.Builder pending;
+    private final Map<String, String> recipeSignatures;
+    private final NamespacedKey identifierKey;
+    private final NamespacedKey uniqueIdKey;
 
     /**
      * Constructor for ItemManager.
@@ -30,46 +48,134 @@ public class ItemManager {
     public ItemManager(JavaPlugin plugin) {
         this.plugin = plugin;
 
-        // Initialize the items map
-        lightItems = new HashMap<>();
+        // Initialize the items registry
+        registry = ItemRegistry.EMPTY;
+        recipeSignatures = new HashMap<>();
+        identifierKey = new NamespacedKey(plugin, "identifier");
+        uniqueIdKey = new NamespacedKey(plugin, "uuid");
         plugin.getServer().getPluginManager().registerEvents(new CustomRecipesListener(), plugin);
     }
 
+    /**
+     * Registers many custom LightItems, the registry is rebuilt once for all of them.
+     *
+     * @param lightItems The LightItems to register.
+     */
+    public void registerItems(Collection<? extends LightItem> lightItems, JavaPlugin plugin) {
+        // Within a reload the items are published by endReload
+        boolean batch = pending == null;
+        if (batch)
+            pending = new ItemRegistry.Builder(registry.getItems());
+
+        try {
+            for (LightItem lightItem : lightItems)
+                registerItems(lightItem, plugin);
+        } finally {
+            if (batch) {
+                registry = pending.build();
+                pending = null;
+            }
+        }
+    }
+
     /**
      * Registers a custom LightItem.
+     * During a reload, the recipe of an item is sent again to the server only if it changed,
+     * and the item is visible once the reload is completed by {@link #endReload()}.
      *
      * @param lightItem The LightItem to register.
      */
     public void registerItems(LightItem lightItem, JavaPlugin plugin) {
         LightPlugin.getLightLogger().fine("Registering %s custom item...", lightItem.getName());
-        if (lightItems.containsKey(lightItem.getIdentifier())) {
+        if (pending != null ? pending.contains(lightItem.getIdentifier()) : registry.contains(lightItem.getIdentifier())) {
             throw new DuplicateIdentifierException(String.format("Duplicate item identifier [%s] found.", lightItem.getName()));
         }
 
-        lightItems.put(lightItem.getIdentifier(), lightItem);
         lightItem.init(plugin);
-        if (lightItem.isCraftable()) {
+        ShapedRecipe recipe = lightItem.isCraftable() ? lightItem.getShapedRecipe(plugin) : null;
+        String signature = recipe == null ? null : getSignature(recipe);
+
+        LightItem old = previous == null ? null : previous.get(lightItem.getIdentifier());
+        if (pending != null)
+            pending.add(lightItem);
+        else
+            registry = registry.with(lightItem);
+
+        // The server recipe of the previous instance is still valid
+        if (old != null && Objects.equals(signature, recipeSignatures.get(old.getIdentifier()))) {
+            LightPlugin.getLightLogger().fine("Registered %s custom item, its recipe is unchanged.", lightItem.getName());
+            return;
+        }
+
+        if (old != null && old.isCraftable()) {
+            plugin.getServer().removeRecipe(old.getNamespacedKey());
+            recipeSignatures.remove(old.getIdentifier());
+        }
+
+        if (recipe != null) {
             LightPlugin.getLightLogger().fine("Adding %s shaped recipe...", lightItem.getName());
-            plugin.getServer().addRecipe(lightItem.getShapedRecipe(plugin));
+            plugin.getServer().addRecipe(recipe);
+            recipeSignatures.put(lightItem.getIdentifier(), signature);
             LightPlugin.getLightLogger().fine("Added %s shaped recipe.", lightItem.getName());
         }
         LightPlugin.getLightLogger().fine("Registered %s custom item.", lightItem.getName());
     }
 
+    /**
+     * Starts a reload of the registered items.
+     * The items must then be registered again, and the reload completed with {@link #endReload()}.
+     * The previous items stay visible until then.
+     */
+    public void beginReload() {
+        if (previous != null)
+            endReload();
+
+        previous = registry;
+        pending = new ItemRegistry.Builder(Collections.<LightItem>emptyList());
+    }
+
+    /**
+     * Completes a reload, removing the recipes of the items not registered again.
+     */
+    public void endReload() {
+        if (previous == null)
+            return;
+
+        // The items registered again are published at once
+        registry = pending.build();
+        pending = null;
+
+        for (LightItem item : previous.getItems()) {
+            if (registry.contains(item.getIdentifier()))
+                continue;
+
+            if (item.isCraftable()) {
+                LightPlugin.getLightLogger().fine("Removing %s shaped recipe...", item.getName());
+                plugin.getServer().removeRecipe(item.getNamespacedKey());
+                recipeSignatures.remove(item.getIdentifier());
+            }
+            LightPlugin.getLightLogger().fine("Disposed %s custom item.", item.getName());
+        }
+        previous = null;
+    }
+
     /**
      * Dispose all registered items.
      */
     public void dispose() {
-        for (String key : lightItems.keySet()) {
-            LightPlugin.getLightLogger().fine("Disposing %s custom item...", lightItems.get(key).getName());
-            if (lightItems.get(key).isCraftable()) {
-                LightPlugin.getLightLogger().fine("Removing %s shaped recipe...", lightItems.get(key).getName());
-                plugin.getServer().removeRecipe(lightItems.get(key).getNamespacedKey());
-                LightPlugin.getLightLogger().fine("Removed %s shaped recipe.", lightItems.get(key).getName());
+        for (LightItem item : registry.getItems()) {
+            LightPlugin.getLightLogger().fine("Disposing %s custom item...", item.getName());
+            if (item.isCraftable()) {
+                LightPlugin.getLightLogger().fine("Removing %s shaped recipe...", item.getName());
+                plugin.getServer().removeRecipe(item.getNamespacedKey());
+                LightPlugin.getLightLogger().fine("Removed %s shaped recipe.", item.getName());
             }
-            LightPlugin.getLightLogger().fine("Disposed %s custom item.", lightItems.get(key).getName());
+            LightPlugin.getLightLogger().fine("Disposed %s custom item.", item.getName());
         }
-        lightItems.clear();
+        registry = ItemRegistry.EMPTY;
+        previous = null;
+        pending = null;
+        recipeSignatures.clear();
     }
 
     /**
@@ -79,15 +185,7 @@ public class ItemManager {
      * @return The corresponding LightItem, or null if no matching LightItem is found.
      */
     public LightItem get(@NotNull Class<? extends LightItem> itemClass) {
-        LightPlugin.getLightLogger().finer("Trying to get custom item by %s class...", itemClass.toString());
-        for (LightItem item : lightItems.values()) {
-            if (item.getClass().equals(itemClass)) {
-                LightPlugin.getLightLogger().finer("Found %s custom item.", item.getName());
-                return item;
-            }
-        }
-        LightPlugin.getLightLogger().finer("Custom item with %s class not found.", itemClass.toString());
-        return null;
+        return registry.get(itemClass);
     }
 
     /**
@@ -97,47 +195,270 @@ public class ItemManager {
      * @return The corresponding LightItem, or null if no matching LightItem is found.
      */
     public LightItem get(@NotNull String identifier) {
-        LightPlugin.getLightLogger().finer("Trying to get custom item by %s identifier...", identifier);
-        for (LightItem item : lightItems.values()) {
-            if (item.getIdentifier().equals(identifier)) {
-                LightPlugin.getLightLogger().finer("Found %s custom item.", item.getName());
-                return item;
-            }
-        }
-        LightPlugin.getLightLogger().finer("Custom item with %s identifier not found.", identifier);
-        return null;
+        return registry.get(identifier);
+    }
+
+    /**
+     * Retrieves a LightItem based on its recipe NamespacedKey.
+     *
+     * @param namespacedKey The NamespacedKey of the item to retrieve.
+     * @return The corresponding LightItem, or null if no matching LightItem is found.
+     */
+    public LightItem get(@NotNull NamespacedKey namespacedKey) {
+        return registry.get(namespacedKey);
+    }
+
+    /**
+     * Retrieves a LightItem based on its vanilla material and custom model data.
+     *
+     * @param material The vanilla material of the item to retrieve.
+     * @param customModelData The custom model data of the item to retrieve.
+     * @return The corresponding LightItem, or null if no matching LightItem is found.
+     */
+    public LightItem get(@NotNull Material material, int customModelData) {
+        return registry.get(material, customModelData);
     }
 
     /**
      * Retrieves a LightItem based on the provided ItemStack.
+     * The identifier stamped in the item PersistentDataContainer is used,
+     * untagged items created before the stamp are matched by their look.
      *
      * @param itemStack The ItemStack to match.
      * @return The corresponding LightItem, or null if no matching LightItem is found.
      */
     public LightItem get(ItemStack itemStack) {
-        LightPlugin.getLightLogger().finer("Trying to get custom item by %s ItemStack...", itemStack);
-        if(itemStack == null) {
-            LightPlugin.getLightLogger().finer("Failed to get custom item, null ItemStack.");
+        return get(itemStack, registry, null);
+    }
+
+    /**
+     * Retrieves a LightItem based on the provided ItemStack.
+     *
+     * @param itemStack The ItemStack to match.
+     * @param current The registry to look up.
+     * @param templates The templates of the LightItems by identifier, taken on the main thread,
+     *                  or null to read the current ones on the main thread.
+     * @return The corresponding LightItem, or null if no matching LightItem is found.
+     */
+    private LightItem get(ItemStack itemStack, ItemRegistry current, Map<String, ItemStack> templates) {
+        // Light items always have a meta, checked after the cheaper material test
+        if(itemStack == null || !current.isLightMaterial(itemStack.getType()) || !itemStack.hasItemMeta())
             return null;
+
+        ItemMeta meta = itemStack.getItemMeta();
+        assert meta != null;
+
+        String identifier = meta.getPersistentDataContainer().get(identifierKey, PersistentDataType.STRING);
+        if(identifier != null)
+            return current.get(identifier);
+
+        return getUntagged(itemStack, meta, current, templates);
+    }
+
+    /**
+     * Scans an inventory for LightItems.
+     *
+     * @param inventory The inventory to scan.
+     * @return The LightItems found, with their amount and slots.
+     */
+    public ItemScan scan(@NotNull Inventory inventory) {
+        return scan(inventory.getContents());
+    }
+
+    /**
+     * Scans the contents of an inventory for LightItems.
+     * Stacks of materials no LightItem uses are skipped without reading their meta.
+     *
+     * @param contents The contents to scan, null slots are allowed.
+     * @return The LightItems found, with their amount and slots.
+     */
+    public ItemScan scan(@NotNull ItemStack[] contents) {
+        return scan(contents, registry, null);
+    }
+
+    private ItemScan scan(ItemStack[] contents, ItemRegistry current, Map<String, ItemStack> templates) {
+        ItemScan scan = new ItemScan();
+
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack itemStack = contents[slot];
+            if(itemStack == null || !current.isLightMaterial(itemStack.getType()))
+                continue;
+
+            LightItem item = get(itemStack, current, templates);
+            if(item != null)
+                scan.add(item.getIdentifier(), slot, itemStack.getAmount());
         }
+        return scan;
+    }
 
-        if(itemStack.getType().equals(Material.AIR)) {
-            LightPlugin.getLightLogger().finer("Failed to get custom item, air ItemStack.");
-            return null;
+    /**
+     * Scans many inventories for LightItems off the main thread.
+     * It must be called from the main thread: the stacks of Light materials are copied
+     * right away, then the copies are resolved by an async task.
+     *
+     * @param inventories The inventories to scan.
+     * @return A future completed off the main thread with a scan per inventory, in the same order.
+     */
+    public CompletableFuture<List<ItemScan>> scanAsync(@NotNull List<Inventory> inventories) {
+        // The templates are rebuilt on the main thread when the messages change, never by the async task
+        ItemRegistry current = registry;
+        Map<String, ItemStack> templates = new HashMap<>();
+        for (LightItem item : current.getItems())
+            templates.put(item.getIdentifier(), item.getTemplate());
+
+        List<ItemStack[]> snapshots = new ArrayList<>(inventories.size());
+        for (Inventory inventory : inventories) {
+            // Inventory contents mirror the live stacks, only the candidates are copied
+            ItemStack[] contents = inventory.getContents();
+            ItemStack[] snapshot = new ItemStack[contents.length];
+            for (int slot = 0; slot < contents.length; slot++)
+                if(contents[slot] != null && current.isLightMaterial(contents[slot].getType()))
+                    snapshot[slot] = contents[slot].clone();
+            snapshots.add(snapshot);
+        }
+
+        CompletableFuture<List<ItemScan>> future = new CompletableFuture<>();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                List<ItemScan> scans = new ArrayList<>(snapshots.size());
+                for (ItemStack[] snapshot : snapshots)
+                    scans.add(scan(snapshot, current, templates));
+                future.complete(scans);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Completes the craft of a unique LightItem, every crafted item gets its own id.
+     * <p>
+     * The recipe results have no id. A click crafts one item, stamped here. A shift click
+     * would copy a single result into every crafted item, so it is cancelled and the
+     * crafts are done here one by one, until the ingredients run out or the inventory
+     * of the player is full.
+     *
+     * @param e The craft event, already allowed.
+     * @param item The crafted unique LightItem.
+     */
+    public void craftUnique(CraftItemEvent e, LightItem item) {
+        if(!e.isShiftClick()) {
+            e.setCurrentItem(item.getItemStack());
+            return;
+        }
+
+        e.setCancelled(true);
+        CraftingInventory inventory = e.getInventory();
+        ItemStack[] matrix = inventory.getMatrix();
+
+        // Every craft takes one item from each ingredient slot
+        int crafts = Integer.MAX_VALUE;
+        for (ItemStack ingredient : matrix) {
+            if(ingredient == null || ingredient.getType() == Material.AIR)
+                continue;
+            crafts = Math.min(crafts, getRemainder(ingredient.getType()) == null ? ingredient.getAmount() : 1);
+        }
+        if(crafts == Integer.MAX_VALUE)
+            return;
+
+        PlayerInventory playerInventory = e.getWhoClicked().getInventory();
+        int crafted = 0;
+        while (crafted < crafts && playerInventory.firstEmpty() >= 0) {
+            playerInventory.addItem(item.getItemStack());
+            crafted++;
         }
+        if(crafted == 0)
+            return;
+
+        for (int slot = 0; slot < matrix.length; slot++) {
+            ItemStack ingredient = matrix[slot];
+            if(ingredient == null || ingredient.getType() == Material.AIR)
+                continue;
 
-        for (LightItem curItem : lightItems.values()) {
-            ItemStack item1 = clean(itemStack);
-            ItemStack item2 = clean(curItem.getItemStack());
-            if(item1.isSimilar(item2)) {
-                LightPlugin.getLightLogger().finer("Found %s custom item.", curItem.getName());
-                return curItem;
+            Material remainder = getRemainder(ingredient.getType());
+            if(ingredient.getAmount() > crafted) {
+                ingredient.setAmount(ingredient.getAmount() - crafted);
+                if(remainder != null)
+                    playerInventory.addItem(new ItemStack(remainder)).values()
+                                   .forEach(left -> e.getWhoClicked().getWorld().dropItem(e.getWhoClicked().getLocation(), left));
+            } else {
+                matrix[slot] = remainder == null ? null : new ItemStack(remainder);
             }
         }
-        LightPlugin.getLightLogger().finer("Custom item with %s ItemStack not found.", itemStack);
-        return null;
+        inventory.setMatrix(matrix);
+
+        // The ingredients ran out
+        if(crafted == crafts)
+            inventory.setResult(null);
+
+        if(e.getWhoClicked() instanceof Player)
+            ((Player) e.getWhoClicked()).updateInventory();
     }
 
+    // The item left in the grid by an ingredient, like the bucket of a milk bucket
+    private static Material getRemainder(Material ingredient) {
+        switch (ingredient) {
+            case WATER_BUCKET:
+            case LAVA_BUCKET:
+            case MILK_BUCKET:
+            case POWDER_SNOW_BUCKET:
+                return Material.BUCKET;
+            case HONEY_BOTTLE:
+            case DRAGON_BREATH:
+                return Material.GLASS_BOTTLE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Retrieves the id stamped in a unique LightItem.
+     * Both the binary encoding and the legacy string one are read.
+     *
+     * @param itemStack The ItemStack of the unique LightItem.
+     * @return The id of the item, or null if it has none.
+     */
+    public UUID getUniqueId(ItemStack itemStack) {
+        if(itemStack == null || !itemStack.hasItemMeta())
+            return null;
+
+        ItemMeta meta = itemStack.getItemMeta();
+        assert meta != null;
+
+        PersistentDataContainer container = meta.getPersistentDataContainer();
+        if(container.has(uniqueIdKey, UUIDDataType.INSTANCE))
+            return container.get(uniqueIdKey, UUIDDataType.INSTANCE);
+
+        String legacy = container.get(uniqueIdKey, PersistentDataType.STRING);
+        if(legacy == null)
+            return null;
+
+        try {
+            return UUID.fromString(legacy);
+        } catch (IllegalArgumentException e) {
+            LightPlugin.getLightLogger().warning("Invalid unique id %s in a %s item.", legacy, itemStack.getType());
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the key of the identifier stamped in the LightItem PersistentDataContainer.
+     *
+     * @return The identifier NamespacedKey.
+     */
+    public NamespacedKey getIdentifierKey() {
+        return identifierKey;
+    }
+
+    /**
+     * Retrieves the key of the UUID stamped in the unique LightItem PersistentDataContainer.
+     *
+     * @return The UUID NamespacedKey.
+     */
+    public NamespacedKey getUniqueIdKey() {
+        return uniqueIdKey;
+    }
 
     /**
      * Retrieves all registered LightItem.
@@ -145,7 +466,28 @@ public class ItemManager {
      * @return A collection of all registered LightItem.
      */
     public Set<LightItem> getRegisteredItems() {
-        return new HashSet<>(lightItems.values());
+        return new HashSet<>(registry.getItems());
+    }
+
+    /**
+     * Checks if a vanilla material is used by any registered LightItem.
+     *
+     * @param material The material to check.
+     * @return True if a LightItem has the material, otherwise false.
+     */
+    public boolean isLightMaterial(Material material) {
+        return registry.isLightMaterial(material);
+    }
+
+    /**
+     * Checks if a block material can be a placed LightItem, wall variants included,
+     * like PLAYER_WALL_HEAD for a LightItem of PLAYER_HEAD.
+     *
+     * @param material The block material to check.
+     * @return True if a LightItem can be placed as the material, otherwise false.
+     */
+    public boolean isLightBlockMaterial(Material material) {
+        return registry.isLightBlockMaterial(material);
     }
 
     /**
@@ -155,18 +497,45 @@ public class ItemManager {
      * @return True if the ItemStack is registered, otherwise false.
      */
     public boolean isRegistered(ItemStack itemStack) {
-        if(itemStack == null)
-            return false;
+        return get(itemStack) != null;
+    }
 
-        ItemStack item = clean(itemStack);
+    // shape, ingredients and shown result of a recipe
+    private static String getSignature(ShapedRecipe recipe) {
+        StringBuilder signature = new StringBuilder(String.join("/", recipe.getShape()));
 
-        for (LightItem curItem : lightItems.values()) {
-            ItemStack item2 = clean(curItem.getItemStack());
-            if (item2.isSimilar(item)) {
-                return true;
-            }
+        for (Map.Entry<Character, ItemStack> entry : new TreeMap<>(recipe.getIngredientMap()).entrySet()) {
+            signature.append('|').append(entry.getKey()).append('=');
+            if (entry.getValue() != null)
+                signature.append(entry.getValue().getType());
         }
-        return false;
+
+        ItemStack result = recipe.getResult();
+        signature.append("->").append(result.getType());
+        ItemMeta meta = result.getItemMeta();
+        if (meta != null)
+            signature.append(':').append(meta.getDisplayName()).append(':').append(meta.getLore())
+                     .append(':').append(meta.hasCustomModelData() ? meta.getCustomModelData() : 0);
+
+        return signature.toString();
+    }
+
+    // match legacy untagged items by their look
+    private LightItem getUntagged(ItemStack itemStack, ItemMeta meta, ItemRegistry current, Map<String, ItemStack> templates) {
+        // Light items always have a custom model data
+        if(!meta.hasCustomModelData())
+            return null;
+
+        LightItem candidate = current.get(itemStack.getType(), meta.getCustomModelData());
+        if(candidate == null)
+            return null;
+
+        ItemStack template = templates == null ? candidate.getTemplate() : templates.get(candidate.getIdentifier());
+        if(template == null || !clean(template).isSimilar(clean(itemStack)))
+            return null;
+
+        LightPlugin.getLightLogger().finer("Found %s custom item from an untagged ItemStack.", candidate.getIdentifier());
+        return candidate;
     }
 
     // return a cloned clean item
@@ -0,0 +1,182 @@
+package com.frahhs.lightlib.item;
+
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+
+import java.util.*;
+
+/**
+ * Immutable registry of the LightItems, indexed by every key used for lookups.
+ * <p>
+ * A registry is never modified once built, registering or disposing items
+ * builds a new one. Lookups only read final fields and do not allocate.
+ */
+class ItemRegistry {
+    static final ItemRegistry EMPTY = new ItemRegistry(Collections.emptyList());
+
+    private final Set<LightItem> items;
+    private final Map<String, LightItem> byIdentifier;
+    private final Map<Class<? extends LightItem>, LightItem> byClass;
+    private final Map<NamespacedKey, LightItem> byNamespacedKey;
+    private final Map<Material, ModelTable> byModel;
+    private final Set<Material> materials;
+    private final Set<Material> blockMaterials;
+
+    /**
+     * Builds a registry of the given items.
+     *
+     * @param lightItems The initialized LightItems.
+     */
+    ItemRegistry(Collection<LightItem> lightItems) {
+        Set<LightItem> items = new LinkedHashSet<>();
+        Map<String, LightItem> byIdentifier = new HashMap<>();
+        Map<Class<? extends LightItem>, LightItem> byClass = new HashMap<>();
+        Map<NamespacedKey, LightItem> byNamespacedKey = new HashMap<>();
+        Map<Material, List<LightItem>> models = new EnumMap<>(Material.class);
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        Set<Material> blockMaterials = EnumSet.noneOf(Material.class);
+
+        for (LightItem item : lightItems) {
+            items.add(item);
+            byIdentifier.put(item.getIdentifier(), item);
+            byClass.putIfAbsent(item.getClass(), item);
+            byNamespacedKey.put(item.getNamespacedKey(), item);
+            models.computeIfAbsent(item.getVanillaMaterial(), k -> new ArrayList<>()).add(item);
+            materials.add(item.getVanillaMaterial());
+            if(item.getVanillaMaterial().isBlock()) {
+                blockMaterials.add(item.getVanillaMaterial());
+                Material wallMaterial = getWallMaterial(item.getVanillaMaterial());
+                if(wallMaterial != null)
+                    blockMaterials.add(wallMaterial);
+            }
+        }
+
+        Map<Material, ModelTable> byModel = new EnumMap<>(Material.class);
+        for (Map.Entry<Material, List<LightItem>> entry : models.entrySet())
+            byModel.put(entry.getKey(), new ModelTable(entry.getValue()));
+
+        this.items = Collections.unmodifiableSet(items);
+        this.byIdentifier = byIdentifier;
+        this.byClass = byClass;
+        this.byNamespacedKey = byNamespacedKey;
+        this.byModel = byModel;
+        this.materials = materials;
+        this.blockMaterials = blockMaterials;
+    }
+
+    /**
+     * Collects the items of a new registry, built once all of them are added.
+     */
+    static class Builder {
+        private final Map<String, LightItem> items;
+
+        Builder(Collection<LightItem> lightItems) {
+            items = new LinkedHashMap<>();
+            for (LightItem item : lightItems)
+                items.put(item.getIdentifier(), item);
+        }
+
+        boolean contains(String identifier) {
+            return items.containsKey(identifier);
+        }
+
+        void add(LightItem item) {
+            items.put(item.getIdentifier(), item);
+        }
+
+        ItemRegistry build() {
+            return new ItemRegistry(items.values());
+        }
+    }
+
+    /**
+     * Builds a new registry with an item added.
+     *
+     * @param item The initialized LightItem to add.
+     * @return The new registry.
+     */
+    ItemRegistry with(LightItem item) {
+        List<LightItem> newItems = new ArrayList<>(items);
+        newItems.add(item);
+        return new ItemRegistry(newItems);
+    }
+
+    Set<LightItem> getItems() {
+        return items;
+    }
+
+    LightItem get(String identifier) {
+        return byIdentifier.get(identifier);
+    }
+
+    LightItem get(Class<? extends LightItem> itemClass) {
+        return byClass.get(itemClass);
+    }
+
+    LightItem get(NamespacedKey namespacedKey) {
+        return byNamespacedKey.get(namespacedKey);
+    }
+
+    LightItem get(Material material, int customModelData) {
+        ModelTable table = byModel.get(material);
+        return table == null ? null : table.get(customModelData);
+    }
+
+    boolean contains(String identifier) {
+        return byIdentifier.containsKey(identifier);
+    }
+
+    boolean isLightMaterial(Material material) {
+        return materials.contains(material);
+    }
+
+    boolean isLightBlockMaterial(Material material) {
+        return blockMaterials.contains(material);
+    }
+
+    /**
+     * Retrieves the block placed against a wall by an item, like WALL_TORCH for TORCH
+     * or PLAYER_WALL_HEAD for PLAYER_HEAD.
+     *
+     * @param material The item material.
+     * @return The wall variant, or null if the material has none.
+     */
+    private static Material getWallMaterial(Material material) {
+        String name = material.name();
+        String wallName;
+        if(name.endsWith("_HANGING_SIGN"))
+            wallName = name.replace("_HANGING_SIGN", "_WALL_HANGING_SIGN");
+        else if(name.indexOf('_') < 0)
+            wallName = "WALL_" + name;
+        else
+            wallName = name.substring(0, name.lastIndexOf('_')) + "_WALL" + name.substring(name.lastIndexOf('_'));
+
+        Material wallMaterial = Material.getMaterial(wallName);
+        return wallMaterial != null && wallMaterial.isBlock() ? wallMaterial : null;
+    }
+
+    /**
+     * LightItems of the same vanilla material, sorted by custom model data.
+     */
+    private static class ModelTable {
+        private final int[] customModelData;
+        private final LightItem[] items;
+
+        private ModelTable(List<LightItem> lightItems) {
+            List<LightItem> sorted = new ArrayList<>(lightItems);
+            sorted.sort(Comparator.comparingInt(LightItem::getCustomModelData));
+
+            customModelData = new int[sorted.size()];
+            items = new LightItem[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                customModelData[i] = sorted.get(i).getCustomModelData();
+                items[i] = sorted.get(i);
+            }
+        }
+
+        private LightItem get(int model) {
+            int index = Arrays.binarySearch(customModelData, model);
+            return index < 0 ? null : items[index];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.frahhs.lightlib.item;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of an inventory scan: the LightItems found, by identifier, with their amount and slots.
+ */
+public class ItemScan {
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final Map<String, Entry> entries;
+
+    ItemScan() {
+        entries = new HashMap<>();
+    }
+
+    void add(String identifier, int slot, int amount) {
+        Entry entry = entries.computeIfAbsent(identifier, k -> new Entry());
+        if(entry.slotCount == entry.slots.length)
+            entry.slots = Arrays.copyOf(entry.slots, entry.slots.length * 2);
+        entry.slots[entry.slotCount++] = slot;
+        entry.amount += amount;
+    }
+
+    /**
+     * Retrieves the identifiers of all the LightItems found.
+     *
+     * @return The found identifiers.
+     */
+    public Set<String> getIdentifiers() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Checks if a LightItem was found.
+     *
+     * @param identifier The identifier of the LightItem.
+     * @return True if at least one stack was found, otherwise false.
+     */
+    public boolean contains(String identifier) {
+        return entries.containsKey(identifier);
+    }
+
+    /**
+     * Retrieves the total amount of a LightItem, summing all its stacks.
+     *
+     * @param identifier The identifier of the LightItem.
+     * @return The total amount, 0 if not found.
+     */
+    public int getAmount(String identifier) {
+        Entry entry = entries.get(identifier);
+        return entry == null ? 0 : entry.amount;
+    }
+
+    /**
+     * Retrieves the slots holding a LightItem, in ascending order.
+     *
+     * @param identifier The identifier of the LightItem.
+     * @return The slot indices, empty if not found.
+     */
+    public int[] getSlots(String identifier) {
+        Entry entry = entries.get(identifier);
+        return entry == null ? NO_SLOTS : Arrays.copyOf(entry.slots, entry.slotCount);
+    }
+
+    private static class Entry {
+        private int[] slots = new int[4];
+        private int slotCount;
+        private int amount;
+    }
+}
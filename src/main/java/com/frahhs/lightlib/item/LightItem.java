@@ -2,6 +2,8 @@ package com.frahhs.lightlib.item;
 
 import com.frahhs.lightlib.LightObject;
 import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.unique.UUIDDataType;
+import com.frahhs.lightlib.item.unique.UniqueItemRegistry;
 import com.frahhs.lightlib.util.recipe.RecipeManager;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
@@ -23,59 +25,128 @@ import java.util.UUID;
 public abstract class LightItem extends LightObject {
     protected NamespacedKey namespacedKey;
     protected ItemStack item;
+    private boolean craftable;
+    private String craftPermission;
+
+    // Set while the default recipe is built, its result must not issue a unique id
+    private boolean buildingRecipe;
+
+    // Rebuilt when the messages are reloaded
+    private volatile LocalizedName localizedName;
+    private volatile Template template;
 
     /**
      * Init for LightItem.
      */
     protected void init(JavaPlugin plugin) {
         this.namespacedKey = new NamespacedKey(plugin, getIdentifier());
+        this.craftable = buildDefaultShapedRecipe() != null;
+        // From the identifier, the name is localized and changes on reload
+        this.craftPermission = LightPlugin.getOptions().getPermissionPrefix() + ".craft." + getIdentifier().toLowerCase();
+
+        getCurrentTemplate();
+    }
+
+    private Template getCurrentTemplate() {
+        Template current = template;
+        int revision = messages.getRevision();
+
+        if(current == null || current.revision != revision) {
+            current = buildTemplate(revision);
+            template = current;
+            item = current.itemStack;
+        }
+        return current;
+    }
 
-        item = new ItemStack(getVanillaMaterial(), 1);
+    private Template buildTemplate(int revision) {
+        ItemStack itemStack = new ItemStack(getVanillaMaterial(), 1);
 
-        ItemMeta meta = item.getItemMeta();
+        ItemMeta meta = itemStack.getItemMeta();
         assert meta != null;
 
         // Display name
         meta.setDisplayName(ChatColor.WHITE + getName());
 
         // Lore
-        if(getLore() != null) {
-            meta.setLore(getLore());
+        List<String> lore = getLore();
+        if(lore != null) {
+            meta.setLore(lore);
         }
 
         // Custom model data
         meta.setCustomModelData(getCustomModelData());
 
-        item.setItemMeta(meta);
+        // Identifier, used to resolve the LightItem from an ItemStack
+        meta.getPersistentDataContainer().set(LightPlugin.getItemsManager().getIdentifierKey(), PersistentDataType.STRING, getIdentifier());
+
+        itemStack.setItemMeta(meta);
+
+        // Meta copy kept for the unique items, never modified
+        return new Template(revision, itemStack, itemStack.getItemMeta());
     }
 
     /**
-     * Retrieves the ItemStack of the custom Light item.
+     * Retrieves the ItemStack of the custom Light item, to be handed out to a player.
+     * Unique items get a new id, registered as issued, so recipe results and previews
+     * must use {@link #getTemplateStack()} instead.
      *
      * @return The ItemStack of the custom Light item.
      */
     public ItemStack getItemStack() {
-        ItemStack ItemStack = item.clone();
+        Template current = getCurrentTemplate();
 
-        ItemMeta meta = ItemStack.getItemMeta();
-        assert meta != null;
+        if(!isUnique() || buildingRecipe)
+            return current.itemStack.clone();
 
-        // UUID
-        if(isUnique()) {
-            NamespacedKey uuidKey = new NamespacedKey(plugin, "uuid");
-            meta.getPersistentDataContainer().set(uuidKey, PersistentDataType.STRING, UUID.randomUUID().toString());
-        }
+        // Unique items copy only the template meta to add their UUID
+        ItemMeta meta = current.meta.clone();
+        UUID id = LightPlugin.getOptions().getUniqueIdGenerator().generate();
+        meta.getPersistentDataContainer().set(LightPlugin.getItemsManager().getUniqueIdKey(), UUIDDataType.INSTANCE, id);
 
-        ItemStack.setItemMeta(meta);
+        UniqueItemRegistry uniqueItemRegistry = LightPlugin.getUniqueItemRegistry();
+        if(uniqueItemRegistry != null)
+            uniqueItemRegistry.issue(id, getIdentifier());
 
-        return ItemStack;
+        ItemStack itemStack = new ItemStack(getVanillaMaterial(), 1);
+        itemStack.setItemMeta(meta);
+
+        return itemStack;
+    }
+
+    /**
+     * Retrieves the ItemStack of the custom Light item without a unique id,
+     * for recipe results, item displays and previews.
+     *
+     * @return A copy of the template ItemStack.
+     */
+    public ItemStack getTemplateStack() {
+        return getCurrentTemplate().itemStack.clone();
+    }
+
+    /**
+     * Retrieves the current template ItemStack, without copying it.
+     * It must not be modified or given to players.
+     *
+     * @return The template ItemStack.
+     */
+    ItemStack getTemplate() {
+        return getCurrentTemplate().itemStack;
     }
 
     /**
      * Retrieve the name of the custom Light item from the lang file.
+     * The name is resolved once per messages reload.
      */
     public String getName() {
-        return messages.getMessage("items_name."  + getIdentifier(), false);
+        LocalizedName current = localizedName;
+        int revision = messages.getRevision();
+
+        if(current == null || current.revision != revision) {
+            current = new LocalizedName(revision, messages.getMessage("items_name."  + getIdentifier(), false));
+            localizedName = current;
+        }
+        return current.name;
     }
 
     /**
@@ -106,9 +177,9 @@ public abstract class LightItem extends LightObject {
      * @return The shaped recipe of the custom Light item.
      */
     public ShapedRecipe getShapedRecipe(JavaPlugin plugin) {
-        RecipeManager recipeManager = new RecipeManager(plugin);
+        RecipeManager recipeManager = LightPlugin.getRecipeManager();
 
-        ShapedRecipe shapedRecipe = getDefaultShapedRecipe();
+        ShapedRecipe shapedRecipe = null;
 
         try {
             shapedRecipe = recipeManager.loadRecipe(this);
@@ -118,19 +189,29 @@ public abstract class LightItem extends LightObject {
 
         if(shapedRecipe == null) {
             LightPlugin.getLightLogger().fine("Using default recipe for item %s.", getName());
-            return getDefaultShapedRecipe();
+            return buildDefaultShapedRecipe();
         }
 
         return shapedRecipe;
     }
 
+    private ShapedRecipe buildDefaultShapedRecipe() {
+        // The ids of the crafted unique items are issued on craft
+        buildingRecipe = true;
+        try {
+            return getDefaultShapedRecipe();
+        } finally {
+            buildingRecipe = false;
+        }
+    }
+
     public void updateShapedRecipe(ShapedRecipe shapedRecipe, JavaPlugin plugin) {
         if(!isCraftable()) {
             LightPlugin.getLightLogger().warning("Trying to update the recipe of a non craftable item: %s", getName());
             return;
         }
 
-        RecipeManager recipeManager = new RecipeManager(plugin);
+        RecipeManager recipeManager = LightPlugin.getRecipeManager();
 
         try {
             recipeManager.saveRecipe(this, shapedRecipe);
@@ -154,9 +235,20 @@ public abstract class LightItem extends LightObject {
 
     /**
      * Retrieves if the custom Light item is craftable.
+     * It is computed once at init, from the default shaped recipe.
      */
     public boolean isCraftable() {
-        return getDefaultShapedRecipe() != null;
+        return craftable;
+    }
+
+    /**
+     * Retrieves the permission needed to craft the custom Light item,
+     * the permission prefix followed by ".craft." and the lowercase identifier.
+     *
+     * @return The craft permission node.
+     */
+    public String getCraftPermission() {
+        return craftPermission;
     }
 
     /**
@@ -176,9 +268,38 @@ public abstract class LightItem extends LightObject {
      */
     public abstract boolean isUnique();
 
+    /**
+     * Retrieves how many blocks of the custom Light item a player can place, -1 for no limit.
+     */
+    public int getPlacementLimit() {
+        return -1;
+    }
+
     /**
      * Retrieves the name of the custom Light item.
      */
     @NotNull
     public abstract Material getVanillaMaterial();
+
+    private static class LocalizedName {
+        private final int revision;
+        private final String name;
+
+        private LocalizedName(int revision, String name) {
+            this.revision = revision;
+            this.name = name;
+        }
+    }
+
+    private static class Template {
+        private final int revision;
+        private final ItemStack itemStack;
+        private final ItemMeta meta;
+
+        private Template(int revision, ItemStack itemStack, ItemMeta meta) {
+            this.revision = revision;
+            this.itemStack = itemStack;
+            this.meta = meta;
+        }
+    }
 }
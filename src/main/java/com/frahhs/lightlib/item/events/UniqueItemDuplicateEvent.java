@@ -0,0 +1,78 @@
+package com.frahhs.lightlib.item.events;
+
+import com.frahhs.lightlib.LightEvent;
+import org.bukkit.event.HandlerList;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Represents a unique LightItem found in two different holders at the same time.
+ * <p>
+ * Holders are identified as "entity:[uuid]" or "block:[x]:[y]:[z]:[world]".
+ */
+public class UniqueItemDuplicateEvent extends LightEvent {
+    private static final HandlerList handlers = new HandlerList();
+    protected final UUID uniqueId;
+    protected final ItemStack item;
+    protected final String firstHolder;
+    protected final String secondHolder;
+
+    public UniqueItemDuplicateEvent(@NotNull final UUID uniqueId, @NotNull final ItemStack item, @NotNull final String firstHolder, @NotNull final String secondHolder) {
+        this.uniqueId = uniqueId;
+        this.item = item;
+        this.firstHolder = firstHolder;
+        this.secondHolder = secondHolder;
+    }
+
+    /**
+     * Gets the id shared by the duplicated items.
+     *
+     * @return The unique id of the item
+     */
+    @NotNull
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * Gets the ItemStack found in the second holder.
+     *
+     * @return The duplicated ItemStack
+     */
+    @NotNull
+    public ItemStack getItem() {
+        return item;
+    }
+
+    /**
+     * Gets the holder where the item was recorded.
+     *
+     * @return The first holder
+     */
+    @NotNull
+    public String getFirstHolder() {
+        return firstHolder;
+    }
+
+    /**
+     * Gets the holder where the copy has been found.
+     *
+     * @return The second holder
+     */
+    @NotNull
+    public String getSecondHolder() {
+        return secondHolder;
+    }
+
+    @NotNull
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+}
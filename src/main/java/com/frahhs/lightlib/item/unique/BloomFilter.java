@@ -0,0 +1,66 @@
+package com.frahhs.lightlib.item.unique;
+
+/**
+ * Bloom filter over 128 bits ids, sized for a false positive rate of about 1%.
+ */
+class BloomFilter {
+    private static final int HASHES = 7;
+    private static final int BITS_PER_ENTRY = 10;
+
+    private final long[] bits;
+    private final long size;
+    private final int capacity;
+
+    /**
+     * Constructs a new empty BloomFilter.
+     *
+     * @param capacity The number of ids the filter is sized for.
+     */
+    BloomFilter(int capacity) {
+        this.capacity = capacity;
+        this.bits = new long[(int) ((capacity * (long) BITS_PER_ENTRY + 63) / 64)];
+        this.size = bits.length * 64L;
+    }
+
+    void add(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % size;
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    // time-ordered ids share their high bits, both halves are mixed
+    private static long hash(long msb, long lsb) {
+        return mix(mix(msb) ^ lsb);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
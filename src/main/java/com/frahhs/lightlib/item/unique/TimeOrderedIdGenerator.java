@@ -0,0 +1,48 @@
+package com.frahhs.lightlib.item.unique;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Default UniqueIdGenerator, producing time-ordered ids with the UUID version 7 layout.
+ * <p>
+ * The 48 most significant bits are the generation time in milliseconds, followed
+ * by a 12 bits counter and 62 random bits. Every thread keeps its own counter and
+ * random source, so generating ids never contends, and the ids of a thread are
+ * strictly increasing. Sorting the ids sorts them by generation time.
+ */
+public class TimeOrderedIdGenerator implements UniqueIdGenerator {
+    private static final int MAX_SEQUENCE = 0xFFF;
+
+    private final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[2]);
+
+    @Override
+    public UUID generate() {
+        // state[0] is the last timestamp, state[1] the counter within it
+        long[] last = state.get();
+        long millis = System.currentTimeMillis();
+
+        if(millis > last[0]) {
+            last[0] = millis;
+            last[1] = ThreadLocalRandom.current().nextInt(MAX_SEQUENCE / 2);
+        } else if(++last[1] > MAX_SEQUENCE) {
+            // Counter exhausted, borrow the next millisecond
+            last[0]++;
+            last[1] = 0;
+        }
+
+        long msb = (last[0] << 16) | 0x7000L | last[1];
+        long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Retrieves the generation time of an id created by this generator.
+     *
+     * @param uuid The id.
+     * @return The generation time in milliseconds.
+     */
+    public static long getTimestamp(UUID uuid) {
+        return uuid.getMostSignificantBits() >>> 16;
+    }
+}
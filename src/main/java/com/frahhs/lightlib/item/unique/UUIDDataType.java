@@ -0,0 +1,46 @@
+package com.frahhs.lightlib.item.unique;
+
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * PersistentDataType storing a UUID as 16 raw bytes instead of its 36 chars string.
+ */
+public class UUIDDataType implements PersistentDataType<byte[], UUID> {
+    public static final UUIDDataType INSTANCE = new UUIDDataType();
+
+    @NotNull
+    @Override
+    public Class<byte[]> getPrimitiveType() {
+        return byte[].class;
+    }
+
+    @NotNull
+    @Override
+    public Class<UUID> getComplexType() {
+        return UUID.class;
+    }
+
+    @NotNull
+    @Override
+    public byte[] toPrimitive(@NotNull UUID complex, @NotNull PersistentDataAdapterContext context) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(complex.getMostSignificantBits());
+        buffer.putLong(complex.getLeastSignificantBits());
+        return buffer.array();
+    }
+
+    @NotNull
+    @Override
+    public UUID fromPrimitive(@NotNull byte[] primitive, @NotNull PersistentDataAdapterContext context) {
+        if(primitive.length != 16)
+            throw new IllegalArgumentException("A UUID must be 16 bytes, found " + primitive.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(primitive);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
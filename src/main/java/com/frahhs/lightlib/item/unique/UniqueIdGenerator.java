@@ -0,0 +1,17 @@
+package com.frahhs.lightlib.item.unique;
+
+import java.util.UUID;
+
+/**
+ * Generator of the ids stamped in the unique LightItems.
+ * <p>
+ * Implementations must be thread safe, items can be created from async tasks.
+ */
+public interface UniqueIdGenerator {
+    /**
+     * Generates a new unique id.
+     *
+     * @return The generated id.
+     */
+    UUID generate();
+}
@@ -0,0 +1,31 @@
+package com.frahhs.lightlib.item.unique;
+
+import com.frahhs.lightlib.LightListener;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+
+public class UniqueItemListener extends LightListener {
+    private final UniqueItemRegistry registry;
+
+    public UniqueItemListener(UniqueItemRegistry registry) {
+        this.registry = registry;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryOpen(InventoryOpenEvent e) {
+        // The opened inventory first, an item taken from it is a move
+        registry.check(e.getInventory());
+        registry.check(e.getPlayer().getInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPickup(EntityPickupItemEvent e) {
+        if(!(e.getEntity() instanceof Player))
+            return;
+
+        registry.check(e.getItem().getItemStack(), "entity:" + e.getEntity().getUniqueId());
+    }
+}
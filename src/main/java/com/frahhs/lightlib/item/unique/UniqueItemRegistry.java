@@ -0,0 +1,447 @@
+package com.frahhs.lightlib.item.unique;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.ItemManager;
+import com.frahhs.lightlib.item.LightItem;
+import com.frahhs.lightlib.item.events.UniqueItemDuplicateEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Persistent registry of the ids issued to the unique LightItems and of their last holder.
+ * <p>
+ * The persisted ids are kept in memory as sorted arrays, fronted by a Bloom filter,
+ * the ids issued since the last flush are kept in a map until they are merged.
+ * When an id is seen in a holder different from the recorded one, and the recorded
+ * holder still contains it, an {@link UniqueItemDuplicateEvent} is called.
+ * <p>
+ * Holders are identified as "entity:[uuid]" or "block:[x]:[y]:[z]:[world]".
+ */
+public class UniqueItemRegistry {
+    private static final int MIN_CAPACITY = 1 << 16;
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_PERIOD = 20L * 30;
+
+    private BloomFilter filter;
+
+    // Persisted ids, sorted by most and least significant bits
+    private long[] most;
+    private long[] least;
+    private String[] holders;
+    private int size;
+    private final Set<Integer> dirty;
+
+    // Ids registered since the last flush
+    private final Map<UUID, Entry> recent;
+
+    /**
+     * Constructs a new UniqueItemRegistry, loading the issued ids from the database.
+     *
+     * @param plugin The LightPlugin instance.
+     */
+    public UniqueItemRegistry(LightPlugin plugin) {
+        this.most = new long[0];
+        this.least = new long[0];
+        this.holders = new String[0];
+        this.dirty = new HashSet<>();
+        this.recent = new HashMap<>();
+
+        load();
+
+        plugin.getServer().getPluginManager().registerEvents(new UniqueItemListener(this), plugin);
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this::flush, FLUSH_PERIOD, FLUSH_PERIOD);
+    }
+
+    /**
+     * Registers a new id issued to a unique LightItem.
+     *
+     * @param id The issued id.
+     * @param identifier The identifier of the LightItem.
+     */
+    public synchronized void issue(UUID id, String identifier) {
+        recent.put(id, new Entry(identifier, null));
+        addToFilter(id);
+    }
+
+    /**
+     * Checks if an id was issued or seen.
+     *
+     * @param id The id to check.
+     * @return True if the id is registered, otherwise false.
+     */
+    public synchronized boolean isRegistered(UUID id) {
+        if(!filter.mightContain(id.getMostSignificantBits(), id.getLeastSignificantBits()))
+            return false;
+        return recent.containsKey(id) || find(id) >= 0;
+    }
+
+    /**
+     * Checks all the unique LightItems of an inventory.
+     *
+     * @param inventory The inventory to check.
+     */
+    public void check(Inventory inventory) {
+        String holder = getHolder(inventory);
+        if(holder == null)
+            return;
+
+        ItemManager itemManager = LightPlugin.getItemsManager();
+        for (ItemStack item : inventory.getContents())
+            if(item != null && itemManager.isLightMaterial(item.getType()))
+                check(item, holder);
+    }
+
+    /**
+     * Checks a unique LightItem seen in a holder.
+     *
+     * @param item The ItemStack, items without a unique id are ignored.
+     * @param holder The holder where the item has been seen.
+     */
+    public void check(ItemStack item, String holder) {
+        UUID id = LightPlugin.getItemsManager().getUniqueId(item);
+        if(id == null)
+            return;
+
+        String previous = see(id, item, holder);
+        if(previous == null || previous.equals(holder))
+            return;
+
+        // The item moved, unless the previous holder still has it
+        if(!contains(resolve(previous), id)) {
+            move(id, holder);
+            return;
+        }
+
+        LightPlugin.getLightLogger().warning("Unique item %s found in %s and in %s.", id, previous, holder);
+        Bukkit.getPluginManager().callEvent(new UniqueItemDuplicateEvent(id, item, previous, holder));
+    }
+
+    /**
+     * Writes the changed ids to the database and merges the recent ones in the sorted arrays.
+     */
+    public synchronized void flush() {
+        if(recent.isEmpty() && dirty.isEmpty())
+            return;
+
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null)
+            return;
+
+        long now = System.currentTimeMillis();
+
+        try {
+            PreparedStatement ps = connection.prepareStatement("UPDATE UniqueItems SET holder = ?, lastSeen = ? WHERE idMost = ? AND idLeast = ?;");
+            int batched = 0;
+            for (int i : dirty) {
+                ps.setString(1, holders[i]);
+                ps.setLong(2, now);
+                ps.setLong(3, most[i]);
+                ps.setLong(4, least[i]);
+                ps.addBatch();
+                if(++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if(batched > 0)
+                ps.executeBatch();
+            ps.close();
+
+            ps = connection.prepareStatement("INSERT INTO UniqueItems (idMost, idLeast, item, holder, lastSeen) VALUES (?, ?, ?, ?, ?);");
+            batched = 0;
+            for (Map.Entry<UUID, Entry> entry : recent.entrySet()) {
+                ps.setLong(1, entry.getKey().getMostSignificantBits());
+                ps.setLong(2, entry.getKey().getLeastSignificantBits());
+                ps.setString(3, entry.getValue().identifier);
+                ps.setString(4, entry.getValue().holder);
+                ps.setLong(5, now);
+                ps.addBatch();
+                if(++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if(batched > 0)
+                ps.executeBatch();
+            ps.close();
+
+            connection.commit();
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while saving the unique items, they will be saved again.\n%s", e);
+            try {
+                connection.rollback();
+            } catch (SQLException ex) {
+                LightPlugin.getLightLogger().error("Error while rolling back the transaction.\n%s", ex);
+            }
+            return;
+        }
+
+        dirty.clear();
+        merge();
+    }
+
+    /**
+     * Flushes the pending changes, to be called on disable.
+     */
+    public void dispose() {
+        flush();
+    }
+
+    /**
+     * Loads the issued ids again from the database, dropping the ones not flushed yet.
+     * It is called after the UniqueItems table is replaced.
+     */
+    public synchronized void reload() {
+        recent.clear();
+        dirty.clear();
+        most = new long[0];
+        least = new long[0];
+        holders = new String[0];
+        size = 0;
+        load();
+    }
+
+    /**
+     * Retrieves the holder id of an inventory.
+     *
+     * @param inventory The inventory.
+     * @return The holder id, or null if the inventory is not bound to an entity or a block.
+     */
+    public static String getHolder(Inventory inventory) {
+        InventoryHolder holder = inventory.getHolder();
+        if(holder instanceof Entity)
+            return "entity:" + ((Entity) holder).getUniqueId();
+
+        Location location = inventory.getLocation();
+        if(holder == null || location == null || location.getWorld() == null)
+            return null;
+
+        return "block:" + location.getBlockX() + ":" + location.getBlockY() + ":" + location.getBlockZ() + ":" + location.getWorld().getName();
+    }
+
+    private void load() {
+        Connection connection = LightPlugin.getLightDatabase().getConnection();
+        if(connection == null) {
+            filter = new BloomFilter(MIN_CAPACITY);
+            return;
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            int rows = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM UniqueItems;")) {
+                if(rs.next())
+                    rows = rs.getInt(1);
+            }
+
+            most = new long[rows];
+            least = new long[rows];
+            holders = new String[rows];
+            filter = new BloomFilter(capacityFor(rows));
+
+            // Holders are shared by many items
+            Map<String, String> interned = new HashMap<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT idMost, idLeast, holder FROM UniqueItems ORDER BY idMost, idLeast;")) {
+                while (rs.next() && size < rows) {
+                    most[size] = rs.getLong("idMost");
+                    least[size] = rs.getLong("idLeast");
+                    String holder = rs.getString("holder");
+                    holders[size] = holder == null ? null : interned.computeIfAbsent(holder, k -> k);
+                    filter.add(most[size], least[size]);
+                    size++;
+                }
+            }
+            LightPlugin.getLightLogger().fine("Loaded %d unique items.", size);
+        } catch (SQLException e) {
+            LightPlugin.getLightLogger().error("Error while loading the unique items.\n%s", e);
+            filter = new BloomFilter(MIN_CAPACITY);
+        }
+    }
+
+    // record the holder of an id, returning the previous one
+    private synchronized String see(UUID id, ItemStack item, String holder) {
+        if(!filter.mightContain(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+            adopt(id, item, holder);
+            return null;
+        }
+
+        Entry entry = recent.get(id);
+        if(entry != null) {
+            if(entry.holder == null)
+                entry.holder = holder;
+            return entry.holder;
+        }
+
+        int i = find(id);
+        if(i < 0) {
+            adopt(id, item, holder);
+            return null;
+        }
+
+        if(holders[i] == null) {
+            holders[i] = holder;
+            dirty.add(i);
+        }
+        return holders[i];
+    }
+
+    private synchronized void move(UUID id, String holder) {
+        Entry entry = recent.get(id);
+        if(entry != null) {
+            entry.holder = holder;
+            return;
+        }
+
+        int i = find(id);
+        if(i >= 0) {
+            holders[i] = holder;
+            dirty.add(i);
+        }
+    }
+
+    // register an id issued before the registry existed
+    private void adopt(UUID id, ItemStack item, String holder) {
+        LightItem lightItem = LightPlugin.getItemsManager().get(item);
+        recent.put(id, new Entry(lightItem == null ? null : lightItem.getIdentifier(), holder));
+        addToFilter(id);
+    }
+
+    private void addToFilter(UUID id) {
+        if(size + recent.size() > filter.getCapacity()) {
+            filter = new BloomFilter(capacityFor(size + recent.size()));
+            for (int i = 0; i < size; i++)
+                filter.add(most[i], least[i]);
+            for (UUID cur : recent.keySet())
+                filter.add(cur.getMostSignificantBits(), cur.getLeastSignificantBits());
+        }
+
+        filter.add(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    private int find(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = most[mid] != msb ? Long.compare(most[mid], msb) : Long.compare(least[mid], lsb);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // merge the flushed recent ids in the sorted arrays
+    private void merge() {
+        if(recent.isEmpty())
+            return;
+
+        List<UUID> ids = new ArrayList<>(recent.keySet());
+        Collections.sort(ids);
+
+        int newSize = size + ids.size();
+        long[] newMost = new long[newSize];
+        long[] newLeast = new long[newSize];
+        String[] newHolders = new String[newSize];
+
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < newSize; k++) {
+            UUID id = j < ids.size() ? ids.get(j) : null;
+            boolean takeOld = id == null || (i < size && (most[i] != id.getMostSignificantBits()
+                    ? most[i] < id.getMostSignificantBits()
+                    : least[i] < id.getLeastSignificantBits()));
+
+            if(takeOld) {
+                newMost[k] = most[i];
+                newLeast[k] = least[i];
+                newHolders[k] = holders[i];
+                i++;
+            } else {
+                newMost[k] = id.getMostSignificantBits();
+                newLeast[k] = id.getLeastSignificantBits();
+                newHolders[k] = recent.get(id).holder;
+                j++;
+            }
+        }
+
+        most = newMost;
+        least = newLeast;
+        holders = newHolders;
+        size = newSize;
+        recent.clear();
+    }
+
+    private static Inventory resolve(String holder) {
+        try {
+            if(holder.startsWith("entity:")) {
+                Entity entity = Bukkit.getEntity(UUID.fromString(holder.substring(7)));
+                return entity instanceof InventoryHolder ? ((InventoryHolder) entity).getInventory() : null;
+            }
+
+            if(holder.startsWith("block:")) {
+                String[] parts = holder.substring(6).split(":", 4);
+                int x = Integer.parseInt(parts[0]);
+                int y = Integer.parseInt(parts[1]);
+                int z = Integer.parseInt(parts[2]);
+
+                // Unloaded holders are never loaded just to be checked
+                World world = Bukkit.getWorld(parts[3]);
+                if(world == null || !world.isChunkLoaded(x >> 4, z >> 4))
+                    return null;
+
+                BlockState state = world.getBlockAt(x, y, z).getState();
+                return state instanceof InventoryHolder ? ((InventoryHolder) state).getInventory() : null;
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            LightPlugin.getLightLogger().warning("Invalid unique item holder %s.", holder);
+        }
+        return null;
+    }
+
+    private static boolean contains(Inventory inventory, UUID id) {
+        if(inventory == null)
+            return false;
+
+        ItemManager itemManager = LightPlugin.getItemsManager();
+        for (ItemStack item : inventory.getContents())
+            if(item != null && itemManager.isLightMaterial(item.getType()) && id.equals(itemManager.getUniqueId(item)))
+                return true;
+        return false;
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < entries * 2L && capacity < (1 << 28))
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static class Entry {
+        private final String identifier;
+        private String holder;
+
+        private Entry(String identifier, String holder) {
+            this.identifier = identifier;
+            this.holder = holder;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.frahhs.lightlib.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed descriptor of a config.yml value.
+ * <p>
+ * Every key gets a fixed index when created, the ConfigProvider validates and
+ * resolves all the keys once per load into an array, so reading a key is an
+ * array access. Keys are meant to be constants, created once per path.
+ *
+ * @param <T> The type of the value.
+ */
+public final class ConfigKey<T> {
+    private static final List<ConfigKey<?>> keys = new ArrayList<>();
+
+    private final int index;
+    private final String path;
+    private final Class<T> type;
+    private final T defaultValue;
+
+    private ConfigKey(String path, Class<T> type, T defaultValue) {
+        this.path = path;
+        this.type = type;
+        this.defaultValue = defaultValue;
+
+        synchronized (keys) {
+            this.index = keys.size();
+            keys.add(this);
+        }
+    }
+
+    /**
+     * Creates a key of a boolean value.
+     *
+     * @param path The config path.
+     * @param defaultValue The value used when the path is missing or invalid.
+     * @return The new key.
+     */
+    public static ConfigKey<Boolean> ofBoolean(String path, boolean defaultValue) {
+        return new ConfigKey<>(path, Boolean.class, defaultValue);
+    }
+
+    /**
+     * Creates a key of an integer value.
+     *
+     * @param path The config path.
+     * @param defaultValue The value used when the path is missing or invalid.
+     * @return The new key.
+     */
+    public static ConfigKey<Integer> ofInt(String path, int defaultValue) {
+        return new ConfigKey<>(path, Integer.class, defaultValue);
+    }
+
+    /**
+     * Creates a key of a double value, integers in the config are accepted too.
+     *
+     * @param path The config path.
+     * @param defaultValue The value used when the path is missing or invalid.
+     * @return The new key.
+     */
+    public static ConfigKey<Double> ofDouble(String path, double defaultValue) {
+        return new ConfigKey<>(path, Double.class, defaultValue);
+    }
+
+    /**
+     * Creates a key of a string value.
+     *
+     * @param path The config path.
+     * @param defaultValue The value used when the path is missing or invalid.
+     * @return The new key.
+     */
+    public static ConfigKey<String> ofString(String path, String defaultValue) {
+        return new ConfigKey<>(path, String.class, defaultValue);
+    }
+
+    /**
+     * Creates a key of a list of strings.
+     *
+     * @param path The config path.
+     * @return The new key, an empty list is used when the path is missing or invalid.
+     */
+    @SuppressWarnings("unchecked")
+    public static ConfigKey<List<String>> ofStringList(String path) {
+        return new ConfigKey<>(path, (Class<List<String>>) (Class<?>) List.class, Collections.<String>emptyList());
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public T getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Converts a raw config value to the key type.
+     *
+     * @param value The raw value.
+     * @return The converted value, or null if it has not the key type.
+     */
+    Object convert(Object value) {
+        if(type == Double.class && value instanceof Number)
+            return ((Number) value).doubleValue();
+        if(type == List.class && value instanceof List) {
+            List<String> list = new ArrayList<>();
+            for (Object element : (List<?>) value)
+                list.add(String.valueOf(element));
+            return Collections.unmodifiableList(list);
+        }
+        return type.isInstance(value) ? value : null;
+    }
+
+    /**
+     * Retrieves all the keys created so far, ordered by index.
+     *
+     * @return A copy of the keys list.
+     */
+    static List<ConfigKey<?>> getKeys() {
+        synchronized (keys) {
+            return new ArrayList<>(keys);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,22 @@
+package com.frahhs.lightlib.provider;
+
+/**
+ * The config.yml keys read by LightLib.
+ */
+public final class ConfigKeys {
+    public static final ConfigKey<Boolean> ENABLED = ConfigKey.ofBoolean("enabled", true);
+    public static final ConfigKey<Boolean> UPDATE_CHECK = ConfigKey.ofBoolean("update-check", false);
+    public static final ConfigKey<String> LANGUAGE = ConfigKey.ofString("language", "en");
+    public static final ConfigKey<String> PREFIX = ConfigKey.ofString("prefix", "");
+
+    // Database
+    public static final ConfigKey<String> DATABASE_TYPE = ConfigKey.ofString("database.type", "SQLite");
+    public static final ConfigKey<String> DATABASE_NAME = ConfigKey.ofString("database.database-name", "database");
+    public static final ConfigKey<String> MYSQL_ADDRESS = ConfigKey.ofString("database.mysql.address", "localhost");
+    public static final ConfigKey<String> MYSQL_PORT = ConfigKey.ofString("database.mysql.port", "3306");
+    public static final ConfigKey<String> MYSQL_USERNAME = ConfigKey.ofString("database.mysql.username", "");
+    public static final ConfigKey<String> MYSQL_PASSWORD = ConfigKey.ofString("database.mysql.password", "");
+
+    private ConfigKeys() {
+    }
+}
@@ -1,21 +1,54 @@
 package com.frahhs.lightlib.provider;
 
 import com.frahhs.lightlib.LightPlugin;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.MemorySection;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Manages the configurations of the plugin.
+ * <p>
+ * The values are held in an immutable snapshot, replaced as a whole on every
+ * load or edit. The snapshot also holds the values of every {@link ConfigKey},
+ * validated once per load, an edit validates only the edited key. Reloads parse the file off the main thread
+ * and publish the new snapshot on the main thread, a file that fails to parse
+ * leaves the previous snapshot in place.
+ * <p>
+ * Edits change the snapshot right away, the file is written behind: all the
+ * edits made within {@link #WRITE_DELAY_MILLIS} are saved by a single write on
+ * a background thread. Every write has a sequence number, and a parse records
+ * the number of the last write saved when it began, so the edits written after
+ * that are applied again when the parse is published. The missing default
+ * values are written by the same background thread.
  */
 public class ConfigProvider {
+    private static final long WRITE_DELAY_MILLIS = 1000;
+
     private final JavaPlugin plugin;
+    private final File file;
+    private final ScheduledExecutorService writer;
+
+    private volatile Snapshot snapshot;
 
-    private Map<String, Object> config;
+    // Edits not written yet, guarded by itself
+    private final Map<String, Object> pendingEdits;
+    private ScheduledFuture<?> pendingWrite;
+
+    // Edits written since the last published parse, guarded by pendingEdits
+    private final Map<String, WrittenEdit> writtenEdits;
+    private long writeSequence;
+    private long savedSequence;
 
     /**
      * Constructs a new ConfigManager instance.
@@ -24,21 +57,185 @@ public class ConfigProvider {
      */
     public ConfigProvider(JavaPlugin plugin) {
         this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "config.yml");
+        this.pendingEdits = new LinkedHashMap<>();
+        this.writtenEdits = new HashMap<>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, plugin.getName() + " config writer");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.plugin.saveDefaultConfig();
 
         // Read and store config values
-        readConfig();
+        try {
+            snapshot = parse();
+        } catch (IOException | InvalidConfigurationException e) {
+            LightPlugin.getLightLogger().error("Error while loading config.yml, default values used.\n%s", e);
+            YamlConfiguration configFile = new YamlConfiguration();
+            setDefaults(configFile);
+            snapshot = new Snapshot(configFile, readValues(configFile), 0);
+        }
+    }
+
+    /**
+     * Reloads the configuration from the config.yml file.
+     * If the file cannot be parsed the current configuration is kept.
+     *
+     * @return True if the new configuration was loaded.
+     */
+    public boolean reload() {
+        try {
+            publish(parse());
+            return true;
+        } catch (IOException | InvalidConfigurationException e) {
+            LightPlugin.getLightLogger().error("Error while reloading config.yml, the previous configuration is kept.\n%s", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reloads the configuration from the config.yml file off the main thread.
+     * It must be called from the main thread, the new configuration is published
+     * on the main thread. If the file cannot be parsed the current configuration is kept.
+     *
+     * @return A future completed on the main thread, true if the new configuration was loaded.
+     */
+    public CompletableFuture<Boolean> reloadAsync() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                Snapshot parsed;
+                try {
+                    parsed = parse();
+                } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+                    LightPlugin.getLightLogger().error("Error while reloading config.yml, the previous configuration is kept.\n%s", e);
+                    runTask(future, () -> future.complete(false));
+                    return;
+                }
+
+                runTask(future, () -> {
+                    publish(parsed);
+                    future.complete(true);
+                });
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Completes the future exceptionally if the task fails or cannot be scheduled, like when the plugin is disabled
+    private void runTask(CompletableFuture<?> future, Runnable task) {
+        try {
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Parses the config.yml file, the missing default values are then written
+     * to it by the config writer. It does not change the current configuration
+     * and can be called from any thread.
+     *
+     * @return The parsed configuration.
+     * @throws IOException If the file cannot be read.
+     * @throws InvalidConfigurationException If the file is not valid YAML.
+     */
+    Snapshot parse() throws IOException, InvalidConfigurationException {
+        long sequence;
+        synchronized (pendingEdits) {
+            sequence = savedSequence;
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        YamlConfiguration configFile = new YamlConfiguration();
+        configFile.load(file);
+
+        int keys = configFile.getKeys(true).size();
+        setDefaults(configFile);
+        Snapshot parsed = new Snapshot(configFile, readValues(configFile), sequence);
+
+        if(configFile.getKeys(true).size() != keys) {
+            try {
+                writer.execute(() -> writeDefaults(parsed, lastModified, length));
+            } catch (RejectedExecutionException e) {
+                // Disposed, they are written on the next load
+            }
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Replaces the current configuration.
+     * The edits written after the parse began, and the ones not written yet, are applied again.
+     *
+     * @param parsed The parsed configuration.
+     */
+    void publish(Snapshot parsed) {
+        synchronized (pendingEdits) {
+            // An older parse misses writes the current one has
+            if(parsed.sequence < snapshot.sequence) {
+                LightPlugin.getLightLogger().fine("Discarded an outdated parse of config.yml.");
+                return;
+            }
+
+            Map<String, Object> edits = new LinkedHashMap<>();
+            for (Map.Entry<String, WrittenEdit> edit : writtenEdits.entrySet())
+                if(edit.getValue().sequence > parsed.sequence)
+                    edits.put(edit.getKey(), edit.getValue().value);
+            edits.putAll(pendingEdits);
+
+            if(!edits.isEmpty()) {
+                // The parsed file is saved by the next write
+                for (Map.Entry<String, Object> edit : edits.entrySet())
+                    parsed.configFile.set(edit.getKey(), edit.getValue());
+
+                Map<String, Object> config = new HashMap<>(parsed.values);
+                config.putAll(edits);
+                parsed = new Snapshot(parsed, config, edits.keySet());
+            }
+
+            // The edits saved before the parse began are in the parsed file
+            long sequence = parsed.sequence;
+            writtenEdits.values().removeIf(edit -> edit.sequence <= sequence);
+            snapshot = parsed;
+        }
     }
 
     /**
-     * Reads the configuration from the config.yml file and populates the config map.
+     * Retrieves the content hash of the current configuration.
+     *
+     * @return The hash of the config values.
      */
-    private void readConfig() {
-        config = new HashMap<>();
-        this.plugin.reloadConfig();
-        FileConfiguration configFile = this.plugin.getConfig();
+    int getContentHash() {
+        return snapshot.getContentHash();
+    }
+
+    private void setDefaults(YamlConfiguration configFile) {
+        InputStream resource = plugin.getResource("config.yml");
+        if(resource == null)
+            return;
+
+        try (InputStreamReader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+            configFile.setDefaults(YamlConfiguration.loadConfiguration(reader));
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().warning("Error while reading the default config.yml.\n%s", e);
+        }
         configFile.options().copyDefaults(true);
-        this.plugin.saveConfig();
+    }
+
+    private static Map<String, Object> readValues(YamlConfiguration configFile) {
+        Map<String, Object> config = new HashMap<>();
 
         // Iterate through all keys in config
         for (String key : configFile.getKeys(true)) {
@@ -48,35 +245,149 @@ public class ConfigProvider {
             if (!(value instanceof MemorySection))
                 config.put(key, value);
         }
-    }
-
-    /**
-     * Reloads the configuration from the config.yml file.
-     */
-    public void reload() {
-        readConfig();
+        return config;
     }
 
     /**
      * Edits a value in the configuration and saves it to the config.yml file.
+     * The new value is visible right away, the file is written shortly after
+     * on a background thread, together with the other edits made meanwhile.
+     * Once the provider is disposed, the file is written right away.
      *
      * @param key      The key of the value to be edited.
      * @param newValue The new value to be set.
      * @throws RuntimeException If the key does not exist or the new value has an incompatible type.
      */
     public void editConfig(String key, Object newValue) {
-        FileConfiguration configFile = plugin.getConfig();
+        boolean disposed = false;
+        synchronized (pendingEdits) {
+            Snapshot current = snapshot;
+
+            Object oldValue = current.values.get(key);
+            if (oldValue == null)
+                throw new RuntimeException(String.format("The key '%s' is not present in the config.yml file", key));
+            if (!oldValue.getClass().equals(newValue.getClass()))
+                throw new RuntimeException(String.format("The class of '%s' must be the same as '%s', not '%s'", key, oldValue.getClass(), newValue.getClass()));
 
-        Object oldValue = configFile.get(key);
-        if (oldValue == null)
-            throw new RuntimeException(String.format("The key '%s' is not present in the config.yml file", key));
-        if (!oldValue.getClass().equals(newValue.getClass()))
-            throw new RuntimeException(String.format("The class of '%s' must be the same as '%s', not '%s'", key, oldValue.getClass(), newValue.getClass()));
+            // Update config snapshot and schedule the file write
+            Map<String, Object> config = new HashMap<>(current.values);
+            config.put(key, newValue);
+            snapshot = new Snapshot(current, config, Collections.singleton(key));
 
-        // Update config map and save to file
-        config.put(key, newValue);
-        configFile.set(key, newValue);
-        plugin.saveConfig();
+            pendingEdits.put(key, newValue);
+            if(pendingWrite == null) {
+                try {
+                    pendingWrite = writer.schedule(this::write, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    disposed = true;
+                }
+            }
+        }
+
+        // Edited while disabling, like from onLightDisabled
+        if(disposed)
+            write();
+    }
+
+    /**
+     * Writes the pending edits and stops the background writer.
+     * It must be called when the plugin is disabled.
+     */
+    public void dispose() {
+        synchronized (pendingEdits) {
+            if(pendingWrite != null)
+                pendingWrite.cancel(false);
+        }
+
+        writer.shutdown();
+        try {
+            if(!writer.awaitTermination(5, TimeUnit.SECONDS))
+                LightPlugin.getLightLogger().warning("The config writer did not stop in time.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        write();
+    }
+
+    /**
+     * Writes the pending edits to the config.yml file, replacing it atomically.
+     */
+    private void write() {
+        String data;
+        long sequence;
+        synchronized (pendingEdits) {
+            pendingWrite = null;
+            if(pendingEdits.isEmpty())
+                return;
+
+            // The parsed file of the current snapshot is only changed under this lock
+            sequence = ++writeSequence;
+            YamlConfiguration configFile = snapshot.configFile;
+            for (Map.Entry<String, Object> edit : pendingEdits.entrySet()) {
+                configFile.set(edit.getKey(), edit.getValue());
+                writtenEdits.put(edit.getKey(), new WrittenEdit(edit.getValue(), sequence));
+            }
+            pendingEdits.clear();
+            data = configFile.saveToString();
+        }
+
+        // A failed write is kept in the written edits, the next one saves the whole file
+        if(save(data)) {
+            synchronized (pendingEdits) {
+                savedSequence = sequence;
+            }
+        }
+    }
+
+    /**
+     * Writes the default values missing from a parsed file, on the config writer.
+     *
+     * @param parsed The parsed configuration, with the default values.
+     * @param lastModified The modification time of the file when it was parsed.
+     * @param length The length of the file when it was parsed.
+     */
+    private void writeDefaults(Snapshot parsed, long lastModified, long length) {
+        String data;
+        synchronized (pendingEdits) {
+            // A later write saves the default values too, a file changed since the parse is left as it is
+            if(savedSequence != parsed.sequence || !pendingEdits.isEmpty() || file.lastModified() != lastModified || file.length() != length)
+                return;
+            data = parsed.configFile.saveToString();
+        }
+        save(data);
+    }
+
+    private boolean save(String data) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), data.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().error("Error while saving config.yml.\n%s", e);
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves the value of a key from the current snapshot.
+     * <p>
+     * A missing or invalid value is reported once when the config is loaded,
+     * and the key default value is returned.
+     *
+     * @param key The key of the value to retrieve.
+     * @param <T> The type of the value.
+     * @return The value of the key.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(ConfigKey<T> key) {
+        Object[] resolved = snapshot.resolved;
+        if(key.getIndex() < resolved.length)
+            return (T) resolved[key.getIndex()];
+
+        // Key created after the snapshot was built
+        return (T) resolveKeys().resolved[key.getIndex()];
     }
 
     /**
@@ -86,7 +397,7 @@ public class ConfigProvider {
      * @return The value associated with the given path.
      */
     public Object get(String path) {
-        return config.get(path);
+        return snapshot.values.get(path);
     }
 
     /**
@@ -96,7 +407,7 @@ public class ConfigProvider {
      * @return True if the path exists, otherwise false.
      */
     public boolean pathExist(String path) {
-        return config.containsKey(path);
+        return snapshot.values.containsKey(path);
     }
 
     /**
@@ -110,7 +421,7 @@ public class ConfigProvider {
         if (!pathExist(path))
             LightPlugin.getLightLogger().error(String.format("The config path '%s' does not exist.", path));
 
-        Object value = config.get(path);
+        Object value = snapshot.values.get(path);
         if (!(value instanceof Boolean))
             throw new ClassCastException(String.format("Value at '%s' is not a Boolean but is a %s.", path, value.getClass().toString()));
         return (Boolean) value;
@@ -127,7 +438,7 @@ public class ConfigProvider {
         if (!pathExist(path))
             LightPlugin.getLightLogger().error(String.format("The config path '%s' does not exist.", path));
 
-        Object value = config.get(path);
+        Object value = snapshot.values.get(path);
         if (!(value instanceof Integer))
             throw new ClassCastException(String.format("Value at '%s' is not an Integer but is a %s.", path, value.getClass().toString()));
         return (int) value;
@@ -144,7 +455,7 @@ public class ConfigProvider {
         if (!pathExist(path))
             LightPlugin.getLightLogger().error(String.format("The config path '%s' does not exist.", path));
 
-        Object value = config.get(path);
+        Object value = snapshot.values.get(path);
         if (!(value instanceof Double))
             throw new ClassCastException(String.format("Value at '%s' is not an Double but is a %s.", path, value.getClass().toString()));
         return (double) value;
@@ -161,7 +472,7 @@ public class ConfigProvider {
         if (!pathExist(path))
             LightPlugin.getLightLogger().error(String.format("The config path '%s' does not exist.", path));
 
-        Object value = config.get(path);
+        Object value = snapshot.values.get(path);
         if (!(value instanceof String))
             throw new ClassCastException(String.format("Value at '%s' is not a String but is a %s.", path, value.getClass().toString()));
         return (String) value;
@@ -178,9 +489,89 @@ public class ConfigProvider {
         if (!pathExist(path))
             LightPlugin.getLightLogger().error(String.format("The config path '%s' does not exist.", path));
 
-        Object value = config.get(path);
+        Object value = snapshot.values.get(path);
         if (!(value instanceof List))
             throw new ClassCastException(String.format("Value at '%s' is not a List but is a %s.", path, value.getClass().toString()));
         return (List<String>) value;
     }
+
+    private Snapshot resolveKeys() {
+        synchronized (pendingEdits) {
+            Snapshot current = snapshot;
+            if(current.resolved.length < ConfigKey.getKeys().size()) {
+                current = new Snapshot(current, current.values, Collections.<String>emptySet());
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Immutable config values, with the values of the keys resolved by index.
+     */
+    static class Snapshot {
+        // The parsed file, edited only by the config writer
+        private final YamlConfiguration configFile;
+        private final Map<String, Object> values;
+        private final Object[] resolved;
+
+        // Sequence number of the last write saved when the file was parsed
+        private final long sequence;
+
+        private Snapshot(YamlConfiguration configFile, Map<String, Object> values, long sequence) {
+            this.configFile = configFile;
+            this.values = Collections.unmodifiableMap(values);
+            this.sequence = sequence;
+
+            List<ConfigKey<?>> keys = ConfigKey.getKeys();
+            this.resolved = new Object[keys.size()];
+            for (ConfigKey<?> key : keys)
+                resolved[key.getIndex()] = resolve(key, values);
+        }
+
+        /**
+         * Builds a snapshot of changed values, resolving again only the changed paths
+         * and the keys created after the previous snapshot, so nothing is reported twice.
+         */
+        private Snapshot(Snapshot previous, Map<String, Object> values, Collection<String> changedPaths) {
+            this.configFile = previous.configFile;
+            this.values = Collections.unmodifiableMap(values);
+            this.sequence = previous.sequence;
+
+            List<ConfigKey<?>> keys = ConfigKey.getKeys();
+            this.resolved = Arrays.copyOf(previous.resolved, keys.size());
+            for (ConfigKey<?> key : keys)
+                if(key.getIndex() >= previous.resolved.length || changedPaths.contains(key.getPath()))
+                    resolved[key.getIndex()] = resolve(key, values);
+        }
+
+        int getContentHash() {
+            return values.hashCode();
+        }
+
+        private static Object resolve(ConfigKey<?> key, Map<String, Object> values) {
+            Object value = values.get(key.getPath());
+            if(value == null) {
+                LightPlugin.getLightLogger().error("The config path '%s' does not exist, default value used.", key.getPath());
+                return key.getDefaultValue();
+            }
+
+            Object converted = key.convert(value);
+            if(converted == null) {
+                LightPlugin.getLightLogger().error("Value at '%s' is not a %s but is a %s, default value used.", key.getPath(), key.getType().getSimpleName(), value.getClass().getSimpleName());
+                return key.getDefaultValue();
+            }
+            return converted;
+        }
+    }
+
+    private static class WrittenEdit {
+        private final Object value;
+        private final long sequence;
+
+        private WrittenEdit(Object value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package com.frahhs.lightlib.provider;
+
+import com.frahhs.lightlib.LightPlugin;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches config.yml and the language files, reloading them when they are edited.
+ * <p>
+ * The events are collected until the files are quiet for {@link #DEBOUNCE_MILLIS},
+ * so the many writes of an editor save cause a single reload. Only the changed
+ * files are parsed, on the watcher thread, and a file is published on the main
+ * thread only if its parsed values differ from the loaded ones.
+ */
+public class ConfigWatcher {
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final JavaPlugin plugin;
+    private final ConfigProvider configProvider;
+    private final MessagesProvider messagesProvider;
+    private final Path dataFolder;
+    private final Path langFolder;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * Constructs a new ConfigWatcher, it does not watch until started.
+     *
+     * @param plugin The JavaPlugin instance owning the files.
+     * @param configProvider The provider of config.yml.
+     * @param messagesProvider The provider of the language files.
+     */
+    public ConfigWatcher(JavaPlugin plugin, ConfigProvider configProvider, MessagesProvider messagesProvider) {
+        this.plugin = plugin;
+        this.configProvider = configProvider;
+        this.messagesProvider = messagesProvider;
+        this.dataFolder = plugin.getDataFolder().toPath();
+        this.langFolder = dataFolder.resolve("lang");
+    }
+
+    /**
+     * Starts watching the files.
+     */
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dataFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            if(Files.isDirectory(langFolder))
+                langFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().error("Error while starting the config watcher, the files will not be reloaded automatically.\n%s", e);
+            return;
+        }
+
+        thread = new Thread(this::run, plugin.getName() + " config watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the files.
+     */
+    public void stop() {
+        if(watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().warning("Error while closing the config watcher.\n%s", e);
+        }
+
+        if(thread != null)
+            thread.interrupt();
+    }
+
+    private void run() {
+        Set<Path> changed = new LinkedHashSet<>();
+
+        try {
+            while (true) {
+                WatchKey key = changed.isEmpty() ? watchService.take() : watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+                // Quiet for the whole window, reload what changed
+                if(key == null) {
+                    for (Path file : changed)
+                        reload(file);
+                    changed.clear();
+                    continue;
+                }
+
+                Path folder = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        continue;
+
+                    Path file = folder.resolve((Path) event.context());
+                    if(isWatched(file))
+                        changed.add(file);
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private boolean isWatched(Path file) {
+        if(file.getParent().equals(dataFolder))
+            return file.getFileName().toString().equals("config.yml");
+        return file.getParent().equals(langFolder) && file.getFileName().toString().endsWith(".yml");
+    }
+
+    private void reload(Path file) {
+        if(!Files.isRegularFile(file))
+            return;
+
+        try {
+            if(file.getParent().equals(dataFolder))
+                reloadConfig();
+            else
+                reloadLanguage(file.toFile());
+        } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+            LightPlugin.getLightLogger().error("Error while reloading %s, the previous values are kept.\n%s", file.getFileName(), e);
+        }
+    }
+
+    private void reloadConfig() throws IOException, InvalidConfigurationException {
+        ConfigProvider.Snapshot parsed = configProvider.parse();
+        if(parsed.getContentHash() == configProvider.getContentHash())
+            return;
+
+        runTask(() -> {
+            configProvider.publish(parsed);
+
+            // The language and the prefix come from the config
+            messagesProvider.reselect();
+            LightPlugin.getLightLogger().info("config.yml changed, reloaded.");
+        });
+    }
+
+    private void reloadLanguage(File file) throws IOException, InvalidConfigurationException {
+        String name = file.getName().replace(".yml", "");
+
+        // A language not loaded is read on its first use
+        Integer loaded = messagesProvider.getContentHash(name);
+        if(loaded == null)
+            return;
+
+        FileConfiguration parsed = messagesProvider.parseLanguage(file);
+        if(contentHash(parsed) == loaded)
+            return;
+
+        runTask(() -> {
+            messagesProvider.putLanguage(name, parsed);
+            LightPlugin.getLightLogger().info("lang/%s changed, reloaded.", file.getName());
+        });
+    }
+
+    private void runTask(Runnable task) {
+        if(plugin.isEnabled())
+            plugin.getServer().getScheduler().runTask(plugin, task);
+    }
+
+    /**
+     * Hashes the values of a section, the sections themselves are not hashed.
+     * It is the hash of the map of every path to its value.
+     *
+     * @param section The parsed section.
+     * @return The content hash.
+     */
+    static int contentHash(ConfigurationSection section) {
+        int hash = 0;
+        for (String path : section.getKeys(true)) {
+            Object value = section.get(path);
+            if(!(value instanceof ConfigurationSection))
+                hash += path.hashCode() ^ Objects.hashCode(value);
+        }
+        return hash;
+    }
+}
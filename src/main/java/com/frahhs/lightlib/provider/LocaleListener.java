@@ -0,0 +1,40 @@
+package com.frahhs.lightlib.provider;
+
+import com.frahhs.lightlib.LightListener;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+public class LocaleListener extends LightListener {
+    private final MessagesProvider messagesProvider;
+
+    public LocaleListener(MessagesProvider messagesProvider) {
+        this.messagesProvider = messagesProvider;
+    }
+
+    // Requested first, the pack is used by the other handlers once loaded
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent e) {
+        messagesProvider.requestPack(e.getPlayer().getLocale());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onLocaleChange(PlayerLocaleChangeEvent e) {
+        messagesProvider.requestPack(e.getLocale());
+
+        // The previous locale may be no longer used
+        evictLater();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent e) {
+        // The player is still online during the event
+        evictLater();
+    }
+
+    private void evictLater() {
+        plugin.getServer().getScheduler().runTask(plugin, () -> messagesProvider.evict(plugin.getServer().getOnlinePlayers()));
+    }
+}
@@ -0,0 +1,134 @@
+package com.frahhs.lightlib.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message compiled once per load, with the color codes translated.
+ * <p>
+ * The {name} placeholders of the message are split into slots, so rendering
+ * appends the literal parts and the slot values in a single pass into a
+ * reusable builder. Messages without placeholders are returned as is.
+ */
+public final class MessageTemplate {
+    private static final ThreadLocal<StringBuilder> builder = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String prefix;
+    private final String text;
+    private final String prefixedText;
+
+    // Literal parts around the slots, there is one part more than the slots
+    private final String[] parts;
+    private final String[] placeholders;
+
+    private MessageTemplate(String prefix, String text, String[] parts, String[] placeholders) {
+        this.prefix = prefix;
+        this.text = text;
+        this.prefixedText = prefix + text;
+        this.parts = parts;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Compiles a message.
+     *
+     * @param prefix The prefix added at the message head.
+     * @param message The raw message, with & color codes.
+     * @return The compiled template.
+     */
+    public static MessageTemplate compile(String prefix, String message) {
+        String text = message.replace("&", "§");
+
+        List<String> parts = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int start = 0;
+        int open = text.indexOf('{');
+        while (open >= 0) {
+            int close = text.indexOf('}', open + 1);
+            if(close < 0)
+                break;
+
+            String name = text.substring(open + 1, close);
+            if(isPlaceholder(name)) {
+                parts.add(text.substring(start, open));
+                placeholders.add(name);
+                start = close + 1;
+                open = text.indexOf('{', start);
+            } else {
+                open = text.indexOf('{', open + 1);
+            }
+        }
+        parts.add(text.substring(start));
+
+        return new MessageTemplate(prefix, text, parts.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * Retrieves the message with its placeholders unfilled.
+     *
+     * @param usePrefix If true the prefix is added at the message head.
+     * @return The message.
+     */
+    public String getText(boolean usePrefix) {
+        return usePrefix ? prefixedText : text;
+    }
+
+    /**
+     * Retrieves the placeholder names, in the order they appear in the message.
+     *
+     * @return A copy of the placeholder names.
+     */
+    public String[] getPlaceholders() {
+        return placeholders.clone();
+    }
+
+    /**
+     * Renders the message filling its placeholders.
+     * Placeholders without a replacement are left as they are.
+     *
+     * @param usePrefix If true the prefix is added at the message head.
+     * @param replacements Pairs of placeholder name and value, like "player", "Steve".
+     * @return The rendered message.
+     */
+    public String render(boolean usePrefix, String... replacements) {
+        if(placeholders.length == 0)
+            return getText(usePrefix);
+
+        StringBuilder builder = MessageTemplate.builder.get();
+        builder.setLength(0);
+        if(usePrefix)
+            builder.append(prefix);
+
+        for (int slot = 0; slot < placeholders.length; slot++) {
+            builder.append(parts[slot]);
+
+            String value = find(placeholders[slot], replacements);
+            if(value != null)
+                builder.append(value);
+            else
+                builder.append('{').append(placeholders[slot]).append('}');
+        }
+        builder.append(parts[placeholders.length]);
+
+        return builder.toString();
+    }
+
+    private static String find(String placeholder, String[] replacements) {
+        for (int i = 0; i + 1 < replacements.length; i += 2)
+            if(placeholder.equals(replacements[i]))
+                return replacements[i + 1];
+        return null;
+    }
+
+    private static boolean isPlaceholder(String name) {
+        if(name.isEmpty())
+            return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.')
+                return false;
+        }
+        return true;
+    }
+}
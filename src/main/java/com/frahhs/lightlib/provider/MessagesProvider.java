@@ -7,8 +7,12 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
@@ -20,18 +24,31 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 /**
  * Manages localization for a Spigot plugin using YAML configuration files.
+ * <p>
+ * The loaded languages are held in an immutable snapshot. Reloads build a new
+ * snapshot, off the main thread with {@link #reloadAsync()}, and publish it in
+ * a single swap, a language file that fails to parse keeps the previous one.
+ * The messages of the selected language are compiled into {@link MessageTemplate}s
+ * when it is selected, with the english fallback already resolved.
+ * <p>
+ * Messages can also be resolved in the locale of a player. The language pack of a
+ * locale is read and compiled off the main thread, with its fallback chain, like
+ * pt_br, pt, the configured language and english, and it is evicted once no online
+ * player uses the locale. Until the pack is ready the configured language is used,
+ * lookups never read a file.
  */
 public class MessagesProvider {
     private final JavaPlugin plugin;
-    private String lang;
-    private String prefix;
-    private Map<String, FileConfiguration> languageConfigs;
+    private volatile Languages languages;
+    private volatile int revision;
 
     /**
      * Constructs a new MessagesManager.
@@ -40,92 +57,506 @@ public class MessagesProvider {
      */
     public MessagesProvider(JavaPlugin plugin) {
         this.plugin = plugin;
-        this.lang = LightPlugin.getInstance().getConfigProvider().getString("language");
-        this.prefix = LightPlugin.getInstance().getConfigProvider().getString("prefix");
-        this.languageConfigs = new HashMap<>();
 
-        loadLanguageFiles();
-        if (!languageConfigs.containsKey(lang)) {
-            LightPlugin.getLightLogger().warning("Language \"%s\" not found! English automatically selected.", lang);
-            lang = "en";
+        // Broken files are skipped on the first load, so it does not throw
+        try {
+            this.languages = load(false);
+        } catch (IOException | InvalidConfigurationException e) {
+            throw new IllegalStateException(e);
         }
     }
 
     /**
      * Reloads the MessagesProvider, updating language settings and reloading language files.
+     * If a language file cannot be parsed the current languages are kept.
+     *
+     * @return True if the new languages were loaded.
      */
-    public void reload() {
-        this.lang = LightPlugin.getInstance().getConfigProvider().getString("language");
-        this.prefix = LightPlugin.getInstance().getConfigProvider().getString("prefix");
-        this.languageConfigs = new HashMap<>();
+    public boolean reload() {
+        try {
+            publish(load(true));
+            return true;
+        } catch (IOException | InvalidConfigurationException e) {
+            LightPlugin.getLightLogger().error("Error while reloading the language files, the previous ones are kept.\n%s", e);
+            return false;
+        }
+    }
 
-        loadLanguageFiles();
-        if (!languageConfigs.containsKey(lang)) {
-            LightPlugin.getLightLogger().warning("Language \"%s\" not found! English automatically selected.", lang);
-            lang = "en";
+    /**
+     * Reloads the language files off the main thread.
+     * It must be called from the main thread, after the config reload, the new languages
+     * are published on the main thread. If a language file cannot be parsed the current
+     * languages are kept.
+     *
+     * @return A future completed on the main thread, true if the new languages were loaded.
+     */
+    public CompletableFuture<Boolean> reloadAsync() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                Languages loaded;
+                try {
+                    loaded = load(true);
+                } catch (IOException | InvalidConfigurationException | RuntimeException e) {
+                    LightPlugin.getLightLogger().error("Error while reloading the language files, the previous ones are kept.\n%s", e);
+                    runTask(future, () -> future.complete(false));
+                    return;
+                }
+
+                runTask(future, () -> {
+                    publish(loaded);
+                    future.complete(true);
+                });
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Completes the future exceptionally if the task fails or cannot be scheduled, like when the plugin is disabled
+    private void runTask(CompletableFuture<?> future, Runnable task) {
+        try {
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
         }
     }
 
+    private void publish(Languages loaded) {
+        languages = loaded;
+
+        // Invalidates the messages cached by the LightItems
+        revision++;
+    }
+
+    /**
+     * Retrieves the revision of the loaded messages, incremented on every reload.
+     *
+     * @return The messages revision.
+     */
+    public int getRevision() {
+        return revision;
+    }
+
     /**
      * Retrieves a localized message for the given language and key.
      *
      * @param key The key of the message to retrieve.
      * @param usePrefix If true the prefix will be added at the message head.
-     * @return The localized message, or null if not found.
+     * @return The localized message, empty if not found.
      */
     public String getMessage(String key, boolean usePrefix) {
-        FileConfiguration config = languageConfigs.get(lang);
-        if (config == null) {
-            LightPlugin.getLightLogger().warning("Language files '%s' not found.", lang);
-            return null;
-        }
-
-        String message = "";
-
-        if(!config.contains(key)) {
-            FileConfiguration configEng = languageConfigs.get("en");
-            if(!configEng.contains(key)) {
-                LightPlugin.getLightLogger().error("The message path '%s' was not found, empty value used. Try to regen the lang folder.", key);
-            } else {
-                LightPlugin.getLightLogger().warning("The lang path '%s' does not exist for the language '%s', english used.", key, lang);
-                message = configEng.getString(key);
-            }
-        } else {
-            message = config.getString(key);
-        }
-
-        assert message != null;
-        message = message.replace("&", "§");
+        return getTemplate(key).getText(usePrefix);
+    }
 
-        if(usePrefix)
-            return String.format("%s%s", prefix, message);
-        else
-            return message;
+    /**
+     * Retrieves a localized message for the given key, filling its {name} placeholders.
+     *
+     * @param key The key of the message to retrieve.
+     * @param usePrefix If true the prefix will be added at the message head.
+     * @param replacements Pairs of placeholder name and value, like "player", "Steve".
+     * @return The localized message.
+     */
+    public String getMessage(String key, boolean usePrefix, String... replacements) {
+        return getTemplate(key).render(usePrefix, replacements);
     }
 
     /**
      * Retrieves a localized message for the given language and key.
      *
      * @param key The key of the message to retrieve.
-     * @return The localized message, or null if not found.
+     * @return The localized message, empty if not found.
      */
     public String getMessage(String key) {
         return getMessage(key, true);
     }
 
+    /**
+     * Retrieves a message in the locale of the given sender.
+     *
+     * @param sender The receiver of the message, senders that are not players get the configured language.
+     * @param key The key of the message to retrieve.
+     * @return The localized message, empty if not found.
+     */
+    public String getMessage(CommandSender sender, String key) {
+        return getTemplate(sender, key).getText(true);
+    }
+
+    /**
+     * Retrieves a message in the locale of the given sender.
+     *
+     * @param sender The receiver of the message, senders that are not players get the configured language.
+     * @param key The key of the message to retrieve.
+     * @param usePrefix If true the prefix will be added at the message head.
+     * @return The localized message, empty if not found.
+     */
+    public String getMessage(CommandSender sender, String key, boolean usePrefix) {
+        return getTemplate(sender, key).getText(usePrefix);
+    }
+
+    /**
+     * Retrieves a message in the locale of the given sender, filling its {name} placeholders.
+     *
+     * @param sender The receiver of the message, senders that are not players get the configured language.
+     * @param key The key of the message to retrieve.
+     * @param usePrefix If true the prefix will be added at the message head.
+     * @param replacements Pairs of placeholder name and value, like "player", "Steve".
+     * @return The localized message.
+     */
+    public String getMessage(CommandSender sender, String key, boolean usePrefix, String... replacements) {
+        return getTemplate(sender, key).render(usePrefix, replacements);
+    }
+
+    /**
+     * Retrieves the compiled message for the given key, in the configured language.
+     *
+     * @param key The key of the message to retrieve.
+     * @return The message template, an empty one if the key is not found.
+     */
+    public MessageTemplate getTemplate(String key) {
+        return languages.defaultPack.get(key);
+    }
+
+    /**
+     * Retrieves the compiled message for the given key, in the locale of the given sender.
+     * The configured language is used until the language pack of the locale is loaded.
+     *
+     * @param sender The receiver of the message, senders that are not players get the configured language.
+     * @param key The key of the message to retrieve.
+     * @return The message template, an empty one if the key is not found.
+     */
+    public MessageTemplate getTemplate(CommandSender sender, String key) {
+        return getPack(this.languages, sender).get(key);
+    }
+
+    /**
+     * Retrieves a message in the locale of the given sender, or a built-in text if the
+     * language files do not have the key, like the keys added after they were written.
+     *
+     * @param sender The receiver of the message, senders that are not players get the configured language.
+     * @param key The key of the message to retrieve.
+     * @param defaultMessage The text used when the key is missing, with & color codes.
+     * @return The localized message, with the prefix.
+     */
+    public String getMessageOrDefault(CommandSender sender, String key, String defaultMessage) {
+        Languages languages = this.languages;
+        MessageTemplate template = getPack(languages, sender).find(key);
+        if(template == null)
+            template = MessageTemplate.compile(languages.prefix, defaultMessage);
+        return template.getText(true);
+    }
+
+    private LocalePack getPack(Languages languages, CommandSender sender) {
+        if(!(sender instanceof Player))
+            return languages.defaultPack;
+
+        String locale = normalize(((Player) sender).getLocale());
+        LocalePack pack = findPack(languages, locale);
+        if(pack != null)
+            return pack;
+
+        // Never parsed on the lookup thread
+        requestPack(languages, locale);
+        return languages.defaultPack;
+    }
+
     /**
      * Retrieves the plugin prefix.
      *
      * @return The prefix.
      */
     public String getPrefix() {
-        return prefix;
+        return languages.prefix;
+    }
+
+    /**
+     * Loads the language pack of a locale off the main thread, unless it is already loading.
+     *
+     * @param locale The locale, like pt_br.
+     */
+    void requestPack(String locale) {
+        requestPack(languages, normalize(locale));
+    }
+
+    private void requestPack(Languages languages, String locale) {
+        if(!languages.loading.add(locale))
+            return;
+
+        try {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                try {
+                    getPack(languages, locale);
+                } finally {
+                    languages.loading.remove(locale);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Disabled, the default pack is used
+            languages.loading.remove(locale);
+        }
     }
 
     /**
-     * Loads language configuration files from the plugin's 'lang' folder.
+     * Evicts the language packs of the locales not used by the given players.
+     * The configured language and english are never evicted.
+     *
+     * @param online The online players.
      */
-    private void loadLanguageFiles() {
+    void evict(Collection<? extends Player> online) {
+        Languages languages = this.languages;
+
+        Set<String> locales = new HashSet<>();
+        for (Player player : online)
+            locales.add(normalize(player.getLocale()));
+        languages.locales.keySet().retainAll(locales);
+        languages.packs.keySet().retainAll(new HashSet<>(languages.locales.values()));
+
+        Set<String> names = new HashSet<>(languages.defaultPack.chain);
+        names.add("en");
+        for (LocalePack pack : languages.packs.values())
+            names.addAll(pack.chain);
+        languages.configs.keySet().retainAll(names);
+    }
+
+    // The loaded pack of a locale, null if it is not loaded yet
+    private static LocalePack findPack(Languages languages, String locale) {
+        String chainKey = languages.locales.get(locale);
+        if(chainKey == null)
+            return null;
+
+        if(chainKey.isEmpty() || chainKey.equals(languages.defaultChainKey))
+            return languages.defaultPack;
+        return languages.packs.get(chainKey);
+    }
+
+    private LocalePack getPack(Languages languages, String locale) {
+        locale = normalize(locale);
+
+        // The fallback chain is resolved once per locale, locales with the same chain share the pack
+        String chainKey = languages.locales.get(locale);
+        if(chainKey == null) {
+            List<String> chain = resolveChain(languages.configs, locale, languages.lang);
+            chainKey = String.join(">", chain);
+            languages.locales.put(locale, chainKey);
+        }
+
+        // Locales of the configured language use the default pack
+        if(chainKey.isEmpty() || chainKey.equals(languages.defaultChainKey))
+            return languages.defaultPack;
+
+        LocalePack pack = languages.packs.get(chainKey);
+        if(pack != null)
+            return pack;
+
+        List<String> chain = Arrays.asList(chainKey.split(">"));
+        return languages.packs.computeIfAbsent(chainKey, k -> compile(languages.configs, languages.prefix, chain, false));
+    }
+
+    /**
+     * Resolves the languages used for a locale, most specific first: the locale itself,
+     * its language, the configured language and english. Languages without a file are skipped.
+     *
+     * @param configs The loaded languages.
+     * @param locale The normalized locale.
+     * @param lang The configured language.
+     * @return The names of the languages.
+     */
+    private List<String> resolveChain(Map<String, FileConfiguration> configs, String locale, String lang) {
+        Set<String> candidates = new LinkedHashSet<>();
+        candidates.add(locale);
+        if(locale.indexOf('_') > 0)
+            candidates.add(locale.substring(0, locale.indexOf('_')));
+        candidates.add(lang);
+        candidates.add("en");
+
+        List<String> chain = new ArrayList<>();
+        for (String name : candidates)
+            if(configs.containsKey(name) || getLanguageFile(name).isFile())
+                chain.add(name);
+        return chain;
+    }
+
+    private static String normalize(String locale) {
+        return locale == null ? "" : locale.toLowerCase(Locale.ROOT).replace('-', '_');
+    }
+
+    /**
+     * Compiles the messages of a fallback chain, every message is taken from the first language having it.
+     *
+     * @param configs The loaded languages, the missing ones are loaded.
+     * @param prefix The prefix of the messages.
+     * @param chain The names of the languages, most specific first.
+     * @param warn If true the messages taken from a fallback language are reported as a warning.
+     * @return The compiled language pack.
+     */
+    private LocalePack compile(Map<String, FileConfiguration> configs, String prefix, List<String> chain, boolean warn) {
+        Map<String, MessageTemplate> templates = new HashMap<>();
+
+        List<String> loaded = new ArrayList<>();
+        for (String name : chain) {
+            FileConfiguration config = getConfig(configs, name);
+            if (config == null)
+                continue;
+
+            int size = templates.size();
+            for (String key : config.getKeys(true)) {
+                Object value = config.get(key);
+                if (value != null && !(value instanceof ConfigurationSection) && !templates.containsKey(key))
+                    templates.put(key, MessageTemplate.compile(prefix, String.valueOf(value)));
+            }
+
+            if (!loaded.isEmpty() && templates.size() != size) {
+                if (warn)
+                    LightPlugin.getLightLogger().warning("%d messages do not exist for the language '%s', '%s' used.", templates.size() - size, loaded.get(0), name);
+                else
+                    LightPlugin.getLightLogger().fine("%d messages do not exist for the language '%s', '%s' used.", templates.size() - size, loaded.get(0), name);
+            }
+            loaded.add(name);
+        }
+
+        if (loaded.isEmpty())
+            LightPlugin.getLightLogger().warning("Language files '%s' not found.", chain);
+
+        return new LocalePack(loaded, Collections.unmodifiableMap(templates), MessageTemplate.compile(prefix, ""));
+    }
+
+    private FileConfiguration getConfig(Map<String, FileConfiguration> configs, String name) {
+        return configs.computeIfAbsent(name, k -> {
+            File file = getLanguageFile(k);
+            if (!file.isFile())
+                return null;
+
+            try {
+                return parseLanguage(file);
+            } catch (IOException | InvalidConfigurationException e) {
+                LightPlugin.getLightLogger().error("Error while loading the language file %s, it is skipped.\n%s", file.getName(), e);
+                return null;
+            }
+        });
+    }
+
+    private File getLanguageFile(String name) {
+        return new File(plugin.getDataFolder(), "lang" + File.separator + name + ".yml");
+    }
+
+    /**
+     * Loads the language files with the language and prefix of the current config.
+     * Only the configured language and english are read, the others are read on first use.
+     * It does not change the current languages and can be called from any thread.
+     *
+     * @param strict If true a file that fails to parse fails the load, otherwise it is skipped.
+     * @return The loaded languages.
+     * @throws IOException If a language file cannot be read.
+     * @throws InvalidConfigurationException If a language file is not valid YAML.
+     */
+    private Languages load(boolean strict) throws IOException, InvalidConfigurationException {
+        String lang = LightPlugin.getConfigProvider().get(ConfigKeys.LANGUAGE);
+        String prefix = LightPlugin.getConfigProvider().get(ConfigKeys.PREFIX);
+
+        saveLanguageFiles();
+
+        Map<String, FileConfiguration> configs = new HashMap<>();
+        for (String name : new LinkedHashSet<>(Arrays.asList(lang, "en"))) {
+            File file = getLanguageFile(name);
+            if (!file.isFile())
+                continue;
+
+            try {
+                configs.put(name, parseLanguage(file));
+            } catch (IOException | InvalidConfigurationException e) {
+                if(strict)
+                    throw e;
+                LightPlugin.getLightLogger().error("Error while loading the language file %s, it is skipped.\n%s", file.getName(), e);
+            }
+        }
+
+        return select(lang, prefix, configs);
+    }
+
+    private Languages select(String lang, String prefix, Map<String, FileConfiguration> loaded) {
+        Map<String, FileConfiguration> configs = new ConcurrentHashMap<>(loaded);
+        if (getConfig(configs, lang) == null) {
+            LightPlugin.getLightLogger().warning("Language \"%s\" not found! English automatically selected.", lang);
+            lang = "en";
+        }
+
+        List<String> chain = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(lang, "en")));
+        return new Languages(lang, prefix, configs, compile(configs, prefix, chain, true));
+    }
+
+    /**
+     * Selects again the language and the prefix of the current config, without reading the language files.
+     * It must be called from the main thread.
+     */
+    void reselect() {
+        Languages current = languages;
+        String lang = LightPlugin.getConfigProvider().get(ConfigKeys.LANGUAGE);
+        String prefix = LightPlugin.getConfigProvider().get(ConfigKeys.PREFIX);
+        if (lang.equals(current.lang) && prefix.equals(current.prefix))
+            return;
+
+        publish(select(lang, prefix, current.configs));
+    }
+
+    /**
+     * Parses a single language file.
+     * It does not change the current languages and can be called from any thread.
+     *
+     * @param file The language file.
+     * @return The parsed language.
+     * @throws IOException If the file cannot be read.
+     * @throws InvalidConfigurationException If the file is not valid YAML.
+     */
+    FileConfiguration parseLanguage(File file) throws IOException, InvalidConfigurationException {
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(file);
+        config.options().copyDefaults(true);
+        return config;
+    }
+
+    /**
+     * Replaces a single loaded language, keeping all the others.
+     * A language not loaded yet is ignored, it will be read on first use.
+     * It must be called from the main thread.
+     *
+     * @param name The language name.
+     * @param config The parsed language file.
+     */
+    void putLanguage(String name, FileConfiguration config) {
+        Languages current = languages;
+        if (!current.configs.containsKey(name))
+            return;
+
+        Map<String, FileConfiguration> configs = new HashMap<>(current.configs);
+        configs.put(name, config);
+
+        // The language packs are compiled again on first use
+        String lang = LightPlugin.getConfigProvider().get(ConfigKeys.LANGUAGE);
+        publish(select(lang, current.prefix, configs));
+    }
+
+    /**
+     * Retrieves the content hash of a loaded language.
+     *
+     * @param name The language name.
+     * @return The hash of the language values, or null if the language is not loaded.
+     */
+    Integer getContentHash(String name) {
+        FileConfiguration config = languages.configs.get(name);
+        return config == null ? null : ConfigWatcher.contentHash(config);
+    }
+
+    /**
+     * Saves the language files of the plugin jar to the 'lang' folder and updates them.
+     */
+    private void saveLanguageFiles() {
         File messagesFolder = new File(plugin.getDataFolder(), "lang");
         if (!messagesFolder.exists()) {
             messagesFolder.mkdirs();
@@ -143,16 +574,6 @@ public class MessagesProvider {
 
         // Load YAML files from messages folder
         YamlUpdater.update();
-
-        File[] languageFiles = messagesFolder.listFiles((dir, name) -> name.endsWith(".yml"));
-
-        assert languageFiles != null;
-        for (File file : languageFiles) {
-            String fileName = file.getName().replace(".yml", "");
-            FileConfiguration config = YamlConfiguration.loadConfiguration(file);
-            config.options().copyDefaults(true);
-            languageConfigs.put(fileName, config);
-        }
     }
 
     /**
@@ -328,4 +749,63 @@ public class MessagesProvider {
             }
         }
     }
+
+    /**
+     * Immutable set of the loaded languages.
+     */
+    private static class Languages {
+        private final String lang;
+        private final String prefix;
+        private final LocalePack defaultPack;
+        private final String defaultChainKey;
+
+        // Parsed language files, the others are added on first use
+        private final Map<String, FileConfiguration> configs;
+
+        // Language packs by fallback chain, and the chain of every locale in use
+        private final Map<String, LocalePack> packs;
+        private final Map<String, String> locales;
+
+        // Locales whose pack is being loaded
+        private final Set<String> loading;
+
+        private Languages(String lang, String prefix, Map<String, FileConfiguration> configs, LocalePack defaultPack) {
+            this.lang = lang;
+            this.prefix = prefix;
+            this.configs = configs;
+            this.defaultPack = defaultPack;
+            this.defaultChainKey = String.join(">", defaultPack.chain);
+            this.packs = new ConcurrentHashMap<>();
+            this.locales = new ConcurrentHashMap<>();
+            this.loading = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * The compiled messages of a fallback chain of languages.
+     */
+    private static class LocalePack {
+        private final List<String> chain;
+        private final Map<String, MessageTemplate> templates;
+        private final MessageTemplate empty;
+
+        private LocalePack(List<String> chain, Map<String, MessageTemplate> templates, MessageTemplate empty) {
+            this.chain = chain;
+            this.templates = templates;
+            this.empty = empty;
+        }
+
+        private MessageTemplate find(String key) {
+            return templates.get(key);
+        }
+
+        private MessageTemplate get(String key) {
+            MessageTemplate template = templates.get(key);
+            if(template == null) {
+                LightPlugin.getLightLogger().error("The message path '%s' was not found, empty value used. Try to regen the lang folder.", key);
+                return empty;
+            }
+            return template;
+        }
+    }
 }
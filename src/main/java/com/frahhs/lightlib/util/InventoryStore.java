@@ -0,0 +1,268 @@
+package com.frahhs.lightlib.util;
+
+import com.frahhs.lightlib.LightPlugin;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Persists inventories as a full checkpoint followed by the slot-level changes of every save.
+ * <p>
+ * Each inventory has its own file, made of length-prefixed records: a checkpoint holds all
+ * the slots, a delta only the slots changed since the previous save. Once enough deltas are
+ * appended the file is rewritten as a single checkpoint. Inventories are read on their first
+ * load and kept in memory as the last saved snapshot, used to compute the next delta.
+ */
+public class InventoryStore {
+    private static final int MAGIC = 0x4C494E56;
+    private static final int VERSION = 1;
+
+    // Records
+    private static final byte CHECKPOINT = 1;
+    private static final byte DELTA = 2;
+
+    private static final int MAX_DELTAS = 64;
+
+    private final File folder;
+    private final Map<String, Snapshot> snapshots;
+
+    /**
+     * Constructs a new InventoryStore.
+     *
+     * @param folder The folder of the inventory files.
+     */
+    public InventoryStore(File folder) {
+        this.folder = folder;
+        this.snapshots = new HashMap<>();
+    }
+
+    /**
+     * Loads an inventory, reading its file only the first time.
+     *
+     * @param id The inventory id, it must be a valid file name.
+     * @return A copy of the saved contents, null if the inventory was never saved.
+     */
+    public synchronized ItemStack[] load(String id) {
+        Snapshot snapshot = getSnapshot(id);
+        return snapshot == null ? null : copy(snapshot.contents);
+    }
+
+    /**
+     * Saves an inventory, writing only the slots changed since the last save.
+     *
+     * @param id The inventory id, it must be a valid file name.
+     * @param contents The inventory contents.
+     */
+    public synchronized void save(String id, ItemStack[] contents) {
+        Snapshot snapshot = getSnapshot(id);
+
+        try {
+            if(snapshot == null || snapshot.deltas >= MAX_DELTAS) {
+                writeCheckpoint(id, contents);
+                return;
+            }
+
+            int[] changed = diff(snapshot.contents, contents);
+            if(changed.length == 0 && snapshot.contents.length == contents.length)
+                return;
+
+            ItemStack[] items = new ItemStack[changed.length];
+            for (int i = 0; i < changed.length; i++)
+                items[i] = contents[changed[i]];
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(contents.length);
+            out.writeInt(changed.length);
+            for (int slot : changed)
+                out.writeInt(slot);
+            ItemCodec.write(out, items, false);
+            out.flush();
+
+            try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(id), true)))) {
+                writeRecord(file, DELTA, bytes.toByteArray());
+            }
+
+            snapshot.apply(contents, changed);
+            snapshot.deltas++;
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().error("Error while saving the inventory %s.\n%s", id, e);
+        }
+    }
+
+    /**
+     * Forgets the in-memory snapshot of an inventory, it will be read again on the next load.
+     *
+     * @param id The inventory id.
+     */
+    public synchronized void unload(String id) {
+        snapshots.remove(id);
+    }
+
+    /**
+     * Deletes a saved inventory.
+     *
+     * @param id The inventory id.
+     */
+    public synchronized void delete(String id) {
+        snapshots.remove(id);
+        File file = getFile(id);
+        if(file.exists() && !file.delete())
+            LightPlugin.getLightLogger().warning("Unable to delete %s.", file.getPath());
+    }
+
+    private Snapshot getSnapshot(String id) {
+        Snapshot snapshot = snapshots.get(id);
+        if(snapshot != null)
+            return snapshot;
+
+        File file = getFile(id);
+        if(!file.exists())
+            return null;
+
+        try {
+            snapshot = read(file);
+        } catch (IOException e) {
+            LightPlugin.getLightLogger().error("Error while loading the inventory %s.\n%s", id, e);
+            return null;
+        }
+
+        snapshots.put(id, snapshot);
+        return snapshot;
+    }
+
+    private Snapshot read(File file) throws IOException {
+        Snapshot snapshot = null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unknown inventory format " + file.getPath());
+
+            while (true) {
+                int type = in.read();
+                if(type < 0)
+                    break;
+
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    // A save interrupted while appending, the previous records are valid
+                    LightPlugin.getLightLogger().warning("Truncated record in %s, the last change is lost.", file.getPath());
+
+                    // Nothing can be appended after the broken record, the next save is a checkpoint
+                    if(snapshot != null)
+                        snapshot.deltas = MAX_DELTAS;
+                    break;
+                }
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                if(type == CHECKPOINT) {
+                    snapshot = new Snapshot(ItemCodec.read(data));
+                } else if(type == DELTA) {
+                    if(snapshot == null)
+                        throw new IOException("Inventory delta without a checkpoint in " + file.getPath());
+
+                    int size = data.readInt();
+                    int[] changed = new int[data.readInt()];
+                    for (int i = 0; i < changed.length; i++)
+                        changed[i] = data.readInt();
+                    ItemStack[] items = ItemCodec.read(data);
+
+                    ItemStack[] contents = new ItemStack[size];
+                    for (int i = 0; i < changed.length; i++)
+                        contents[changed[i]] = items[i];
+                    snapshot.apply(contents, changed);
+                    snapshot.deltas++;
+                } else {
+                    throw new IOException("Unknown inventory record " + type + " in " + file.getPath());
+                }
+            }
+        }
+
+        if(snapshot == null)
+            throw new IOException("Inventory without a checkpoint " + file.getPath());
+        return snapshot;
+    }
+
+    private void writeCheckpoint(String id, ItemStack[] contents) throws IOException {
+        if(!folder.exists() && !folder.mkdirs())
+            throw new IOException("Unable to create the directory " + folder.getPath());
+
+        File file = getFile(id);
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeRecord(out, CHECKPOINT, ItemCodec.encode(contents, true));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        snapshots.put(id, new Snapshot(copy(contents)));
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] record) throws IOException {
+        out.writeByte(type);
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    // slots that differ, slots beyond the old size are all changed
+    private static int[] diff(ItemStack[] saved, ItemStack[] contents) {
+        int[] changed = new int[contents.length];
+        int count = 0;
+
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack old = slot < saved.length ? saved[slot] : null;
+            if(!Objects.equals(normalize(old), normalize(contents[slot])))
+                changed[count++] = slot;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(changed, 0, result, 0, count);
+        return result;
+    }
+
+    private static ItemStack normalize(ItemStack item) {
+        return item == null || item.getType() == Material.AIR ? null : item;
+    }
+
+    private static ItemStack[] copy(ItemStack[] contents) {
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++)
+            copy[i] = normalize(contents[i]) == null ? null : contents[i].clone();
+        return copy;
+    }
+
+    private File getFile(String id) {
+        return new File(folder, id + ".inv");
+    }
+
+    private static class Snapshot {
+        private ItemStack[] contents;
+        private int deltas;
+
+        private Snapshot(ItemStack[] contents) {
+            this.contents = contents;
+        }
+
+        private void apply(ItemStack[] source, int[] changed) {
+            if(source.length != contents.length) {
+                ItemStack[] resized = new ItemStack[source.length];
+                System.arraycopy(contents, 0, resized, 0, Math.min(contents.length, source.length));
+                contents = resized;
+            }
+
+            for (int slot : changed)
+                contents[slot] = normalize(source[slot]) == null ? null : source[slot].clone();
+        }
+    }
+}
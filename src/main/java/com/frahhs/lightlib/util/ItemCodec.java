@@ -0,0 +1,443 @@
+package com.frahhs.lightlib.util;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact versioned binary codec for ItemStack arrays.
+ * <p>
+ * Items are written as their serialized maps, with varint numbers and an inline string table,
+ * so material names, keys and repeated texts are written once. Stacks similar to a previous one
+ * are written as a reference to it plus their amount. The body can be wrapped in a deflate frame.
+ * <p>
+ * Layout: magic, version, flags, then the body, or its compressed length and bytes if compressed.
+ * The body is the slot count followed by a tag per slot: empty, new item, or reference.
+ */
+public class ItemCodec {
+    private static final int MAGIC = 0x4C4943;
+    private static final int VERSION = 1;
+
+    // Flags
+    private static final int COMPRESSED = 1;
+
+    // Slot tags
+    private static final int EMPTY = 0;
+    private static final int ITEM = 1;
+    private static final int REFERENCE = 2;
+
+    // Value tags
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int SHORT = 4;
+    private static final int BYTE = 5;
+    private static final int DOUBLE = 6;
+    private static final int FLOAT = 7;
+    private static final int TRUE = 8;
+    private static final int FALSE = 9;
+    private static final int LIST = 10;
+    private static final int MAP = 11;
+    private static final int SERIALIZABLE = 12;
+
+    private static final String AMOUNT = "amount";
+
+    /**
+     * Encodes an array of items.
+     *
+     * @param items The items, null and air slots are allowed.
+     * @param compress True to deflate the body.
+     * @return The encoded bytes.
+     */
+    public static byte[] encode(ItemStack[] items, boolean compress) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(out, items, compress);
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an array of items.
+     *
+     * @param data The encoded bytes.
+     * @return The items, empty slots are null.
+     * @throws IOException If the data is not a valid encoding.
+     */
+    public static ItemStack[] decode(byte[] data) throws IOException {
+        return read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Checks if the data starts with the codec header.
+     *
+     * @param data The data to check.
+     * @return True if the data is encoded by this codec.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= 3 && ((data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Writes an array of items to a stream, the stream is not closed.
+     *
+     * @param out The stream to write.
+     * @param items The items, null and air slots are allowed.
+     * @param compress True to deflate the body.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static void write(OutputStream out, ItemStack[] items, boolean compress) throws IOException {
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compress ? COMPRESSED : 0);
+
+        if(!compress) {
+            writeBody(out, items);
+            return;
+        }
+
+        // Framed with its length, so the stream can continue after it
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(compressed, deflater, 4096);
+            writeBody(deflated, items);
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+
+        writeVarInt(out, compressed.size());
+        compressed.writeTo(out);
+    }
+
+    /**
+     * Reads an array of items from a stream, the stream is not closed.
+     *
+     * @param in The stream to read.
+     * @return The items, empty slots are null.
+     * @throws IOException If an I/O error occurs or the data is not a valid encoding.
+     */
+    public static ItemStack[] read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int magic = data.readUnsignedByte() << 16 | data.readUnsignedByte() << 8 | data.readUnsignedByte();
+        if(magic != MAGIC)
+            throw new IOException("Not an encoded item array.");
+
+        int version = data.readUnsignedByte();
+        if(version > VERSION)
+            throw new IOException(String.format("Item encoding version %d is not supported, the latest is %d.", version, VERSION));
+
+        int flags = data.readUnsignedByte();
+        if((flags & COMPRESSED) == 0)
+            return readBody(data);
+
+        byte[] compressed = new byte[readVarInt(data)];
+        data.readFully(compressed);
+        try (InflaterInputStream inflated = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return readBody(new DataInputStream(new BufferedInputStream(inflated)));
+        }
+    }
+
+    private static void writeBody(OutputStream stream, ItemStack[] items) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        ValueWriter writer = new ValueWriter(out);
+
+        // Stacks similar to a written one, by their single item copy
+        Map<ItemStack, Integer> written = new HashMap<>();
+
+        writeVarInt(out, items.length);
+        for (ItemStack item : items) {
+            if(item == null || item.getType() == Material.AIR) {
+                out.writeByte(EMPTY);
+                continue;
+            }
+
+            ItemStack single = item.clone();
+            single.setAmount(1);
+
+            Integer reference = written.get(single);
+            if(reference != null) {
+                out.writeByte(REFERENCE);
+                writeVarInt(out, reference);
+                writeVarInt(out, item.getAmount());
+                continue;
+            }
+
+            written.put(single, written.size());
+            out.writeByte(ITEM);
+            writeVarInt(out, item.getAmount());
+
+            Map<String, Object> map = new LinkedHashMap<>(item.serialize());
+            map.remove(AMOUNT);
+            writer.writeMap(map);
+        }
+        out.flush();
+    }
+
+    private static ItemStack[] readBody(DataInputStream in) throws IOException {
+        ValueReader reader = new ValueReader(in);
+        List<ItemStack> read = new ArrayList<>();
+
+        ItemStack[] items = new ItemStack[readVarInt(in)];
+        for (int slot = 0; slot < items.length; slot++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case EMPTY:
+                    break;
+                case ITEM: {
+                    int amount = readVarInt(in);
+                    Map<String, Object> map = reader.readMap();
+                    map.put(AMOUNT, amount);
+                    ItemStack item = deserialize(map);
+                    read.add(item);
+                    items[slot] = item.clone();
+                    break;
+                }
+                case REFERENCE: {
+                    int reference = readVarInt(in);
+                    if(reference >= read.size())
+                        throw new IOException("Invalid item reference " + reference);
+                    items[slot] = read.get(reference).clone();
+                    items[slot].setAmount(readVarInt(in));
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown slot tag " + tag);
+            }
+        }
+        return items;
+    }
+
+    private static ItemStack deserialize(Map<String, Object> map) throws IOException {
+        try {
+            return ItemStack.deserialize(map);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid encoded item " + map.get("type"), e);
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if(b < 0)
+                throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.read();
+            if(b < 0)
+                throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varlong.");
+    }
+
+    /**
+     * Writes values, keeping the table of the strings already written.
+     */
+    private static class ValueWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private ValueWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        // 0 and the text for a new string, its index + 1 for a known one
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if(index != null) {
+                writeVarInt(out, index + 1);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            writeVarInt(out, 0);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if(value == null) {
+                out.writeByte(NULL);
+            } else if(value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if(value instanceof Integer) {
+                out.writeByte(INT);
+                int i = (Integer) value;
+                writeVarInt(out, (i << 1) ^ (i >> 31));
+            } else if(value instanceof Long) {
+                out.writeByte(LONG);
+                long l = (Long) value;
+                writeVarLong(out, (l << 1) ^ (l >> 63));
+            } else if(value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if(value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if(value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if(value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if(value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if(value instanceof Collection) {
+                out.writeByte(LIST);
+                writeVarInt(out, ((Collection<?>) value).size());
+                for (Object element : (Collection<?>) value)
+                    writeValue(element);
+            } else if(value instanceof Map) {
+                out.writeByte(MAP);
+                writeMap((Map<?, ?>) value);
+            } else if(value instanceof ConfigurationSerializable) {
+                ConfigurationSerializable serializable = (ConfigurationSerializable) value;
+                out.writeByte(SERIALIZABLE);
+                writeString(ConfigurationSerialization.getAlias(serializable.getClass()));
+                writeMap(serializable.serialize());
+            } else {
+                throw new IOException("Unsupported item value " + value.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Reads values, rebuilding the table of the strings already read.
+     */
+    private static class ValueReader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        private ValueReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private String readString() throws IOException {
+            int index = readVarInt(in);
+            if(index == 0) {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                strings.add(value);
+                return value;
+            }
+
+            if(index > strings.size())
+                throw new IOException("Invalid string reference " + index);
+            return strings.get(index - 1);
+        }
+
+        private Map<String, Object> readMap() throws IOException {
+            int size = readVarInt(in);
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        private Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case INT: {
+                    int i = readVarInt(in);
+                    return (i >>> 1) ^ -(i & 1);
+                }
+                case LONG: {
+                    long l = readVarLong(in);
+                    return (l >>> 1) ^ -(l & 1);
+                }
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case LIST: {
+                    int size = readVarInt(in);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++)
+                        list.add(readValue());
+                    return list;
+                }
+                case MAP:
+                    return readMap();
+                case SERIALIZABLE: {
+                    String alias = readString();
+                    Map<String, Object> map = readMap();
+                    map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, alias);
+                    ConfigurationSerializable value = ConfigurationSerialization.deserializeObject(map);
+                    if(value == null)
+                        throw new IOException("Unable to deserialize " + alias);
+                    return value;
+                }
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+    }
+}
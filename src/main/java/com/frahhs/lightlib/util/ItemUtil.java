@@ -3,26 +3,14 @@ package com.frahhs.lightlib.util;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.util.Base64;
 
 public class ItemUtil {
     public static String toBase64(ItemStack[] items) {
         try {
-            ByteArrayOutputStream str = new ByteArrayOutputStream();
-            BukkitObjectOutputStream data = new BukkitObjectOutputStream(str);
-            data.writeInt(items.length);
-            for(ItemStack item : items) {
-                if(item == null)
-                    item = new ItemStack(Material.AIR);
-
-                data.writeObject(item);
-            }
-            data.close();
-            return Base64.getEncoder().encodeToString(str.toByteArray());
+            return Base64.getEncoder().encodeToString(ItemCodec.encode(items, true));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -31,17 +19,32 @@ public class ItemUtil {
 
     public static ItemStack[] fromBase64(String inventoryData) {
         try {
-            ByteArrayInputStream stream = new ByteArrayInputStream(Base64.getDecoder().decode(inventoryData));
-            BukkitObjectInputStream data = new BukkitObjectInputStream(stream);
-            ItemStack[] items = new ItemStack[data.readInt()];
+            byte[] bytes = Base64.getDecoder().decode(inventoryData);
+
+            // Data written before the ItemCodec is a Java serialization stream
+            if(!ItemCodec.isEncoded(bytes))
+                return fromLegacy(bytes);
+
+            ItemStack[] items = ItemCodec.decode(bytes);
             for (int i = 0; i < items.length; i++) {
-                items[i] = (ItemStack) data.readObject();
+                if(items[i] == null)
+                    items[i] = new ItemStack(Material.AIR);
             }
-            data.close();
             return items;
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
+
+    private static ItemStack[] fromLegacy(byte[] bytes) throws Exception {
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        BukkitObjectInputStream data = new BukkitObjectInputStream(stream);
+        ItemStack[] items = new ItemStack[data.readInt()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = (ItemStack) data.readObject();
+        }
+        data.close();
+        return items;
+    }
 }
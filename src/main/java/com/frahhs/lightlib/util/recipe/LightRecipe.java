@@ -0,0 +1,140 @@
+package com.frahhs.lightlib.util.recipe;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.LightItem;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shaped recipe whose ingredients can be LightItems as well as vanilla materials.
+ * <p>
+ * A LightItem ingredient only accepts that LightItem, a material ingredient only accepts
+ * plain items of that material. Recipes are registered through the {@link LightRecipeEngine}.
+ */
+public class LightRecipe {
+    private final NamespacedKey key;
+    private final LightItem result;
+    private String[] shape;
+    private final Map<Character, Material> materials;
+    private final Map<Character, LightItem> items;
+
+    // Result shown in the crafting grid, rebuilt when the messages are reloaded
+    private ItemStack resultStack;
+    private int resultRevision;
+
+    /**
+     * Constructs a new LightRecipe.
+     *
+     * @param key The key of the recipe, it must differ from the result item key.
+     * @param result The LightItem crafted by the recipe.
+     */
+    public LightRecipe(@NotNull NamespacedKey key, @NotNull LightItem result) {
+        this.key = key;
+        this.result = result;
+        this.shape = new String[0];
+        this.materials = new HashMap<>();
+        this.items = new HashMap<>();
+    }
+
+    /**
+     * Sets the shape of the recipe, up to 3 rows of the same length up to 3 characters, spaces are empty slots.
+     *
+     * @param shape The rows of the recipe.
+     * @return This recipe.
+     */
+    public LightRecipe shape(@NotNull String... shape) {
+        if(shape.length == 0 || shape.length > 3)
+            throw new IllegalArgumentException("A recipe shape must have 1 to 3 rows.");
+        for (String row : shape)
+            if(row.isEmpty() || row.length() > 3 || row.length() != shape[0].length())
+                throw new IllegalArgumentException("A recipe shape must have rows of the same length, from 1 to 3 characters.");
+
+        this.shape = shape.clone();
+        return this;
+    }
+
+    /**
+     * Sets a vanilla material ingredient.
+     *
+     * @param key The shape character.
+     * @param material The material.
+     * @return This recipe.
+     */
+    public LightRecipe setIngredient(char key, @NotNull Material material) {
+        items.remove(key);
+        materials.put(key, material);
+        return this;
+    }
+
+    /**
+     * Sets a LightItem ingredient.
+     *
+     * @param key The shape character.
+     * @param item The LightItem.
+     * @return This recipe.
+     */
+    public LightRecipe setIngredient(char key, @NotNull LightItem item) {
+        materials.remove(key);
+        items.put(key, item);
+        return this;
+    }
+
+    @NotNull
+    public NamespacedKey getKey() {
+        return key;
+    }
+
+    @NotNull
+    public LightItem getResult() {
+        return result;
+    }
+
+    /**
+     * Retrieves the result shown in the crafting grid, without a unique id.
+     * It is shared by all the crafts and must not be modified.
+     *
+     * @return The cached result ItemStack.
+     */
+    ItemStack getResultStack() {
+        int revision = LightPlugin.getMessagesProvider().getRevision();
+        if(resultStack == null || resultRevision != revision) {
+            resultStack = result.getTemplateStack();
+            resultRevision = revision;
+        }
+        return resultStack;
+    }
+
+    @NotNull
+    public String[] getShape() {
+        return shape.clone();
+    }
+
+    /**
+     * Retrieves the vanilla material of the slots with the given character.
+     *
+     * @param key The shape character.
+     * @return The material, null if the character is not an ingredient.
+     */
+    public Material getMaterial(char key) {
+        if(items.containsKey(key))
+            return items.get(key).getVanillaMaterial();
+        return materials.get(key);
+    }
+
+    /**
+     * Retrieves what the engine matches in the slots with the given character.
+     *
+     * @param key The shape character.
+     * @return The LightItem identifier or the Material, null if the character is not an ingredient.
+     */
+    Object getToken(char key) {
+        if(items.containsKey(key))
+            return items.get(key).getIdentifier();
+        return materials.get(key);
+    }
+}
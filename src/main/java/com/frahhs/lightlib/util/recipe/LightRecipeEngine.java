@@ -0,0 +1,211 @@
+package com.frahhs.lightlib.util.recipe;
+
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.ItemManager;
+import com.frahhs.lightlib.item.LightItem;
+import org.bukkit.Keyed;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.Recipe;
+import org.bukkit.inventory.RecipeChoice;
+import org.bukkit.inventory.ShapedRecipe;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.*;
+
+/**
+ * Crafting engine for the {@link LightRecipe}s.
+ * <p>
+ * Every LightRecipe is registered on the server as a shaped recipe of the ingredient
+ * materials, so the server matches the grid and consumes the ingredients as usual.
+ * When one of those recipes is prepared, the crafting grid is resolved to LightItem
+ * identifiers and materials, trimmed, and looked up in a table of all the recipe grids:
+ * the result is set only if the exact ingredients match, whatever the number of recipes.
+ */
+public class LightRecipeEngine {
+    private final JavaPlugin plugin;
+    private final Map<NamespacedKey, LightRecipe> recipes;
+    private final Map<Grid, LightRecipe> grids;
+
+    /**
+     * Constructs a new LightRecipeEngine.
+     *
+     * @param plugin The JavaPlugin instance.
+     */
+    public LightRecipeEngine(JavaPlugin plugin) {
+        this.plugin = plugin;
+        this.recipes = new HashMap<>();
+        this.grids = new HashMap<>();
+
+        plugin.getServer().getPluginManager().registerEvents(new LightRecipeListener(this), plugin);
+    }
+
+    /**
+     * Registers a LightRecipe.
+     *
+     * @param recipe The recipe to register.
+     */
+    public void register(LightRecipe recipe) {
+        if(recipes.containsKey(recipe.getKey()))
+            unregister(recipe.getKey());
+
+        String[] shape = recipe.getShape();
+        if(shape.length == 0)
+            throw new IllegalArgumentException("The recipe " + recipe.getKey() + " has no shape.");
+
+        // Matched by material on the server, by identifier here
+        ShapedRecipe shaped = new ShapedRecipe(recipe.getKey(), recipe.getResult().getTemplateStack());
+        shaped.shape(shape);
+
+        int width = 0;
+        for (String row : shape)
+            width = Math.max(width, row.length());
+
+        Object[] cells = new Object[width * shape.length];
+        for (int y = 0; y < shape.length; y++) {
+            for (int x = 0; x < shape[y].length(); x++) {
+                char c = shape[y].charAt(x);
+                Material material = recipe.getMaterial(c);
+                if(material == null)
+                    continue;
+
+                shaped.setIngredient(c, new RecipeChoice.MaterialChoice(material));
+                cells[y * width + x] = recipe.getToken(c);
+            }
+        }
+
+        Grid grid = Grid.of(cells, width, shape.length);
+        if(grid == null)
+            throw new IllegalArgumentException("The recipe " + recipe.getKey() + " has no ingredients.");
+
+        LightRecipe other = grids.get(grid);
+        if(other != null)
+            LightPlugin.getLightLogger().warning("The recipes %s and %s have the same ingredients, %s is used.", other.getKey(), recipe.getKey(), recipe.getKey());
+
+        grids.put(grid, recipe);
+        grids.putIfAbsent(grid.mirror(), recipe);
+        recipes.put(recipe.getKey(), recipe);
+        plugin.getServer().addRecipe(shaped);
+    }
+
+    /**
+     * Unregisters a LightRecipe.
+     *
+     * @param key The key of the recipe.
+     */
+    public void unregister(NamespacedKey key) {
+        if(recipes.remove(key) == null)
+            return;
+
+        grids.values().removeIf(recipe -> recipe.getKey().equals(key));
+        plugin.getServer().removeRecipe(key);
+    }
+
+    /**
+     * Unregisters all the LightRecipes.
+     */
+    public void dispose() {
+        for (NamespacedKey key : recipes.keySet())
+            plugin.getServer().removeRecipe(key);
+        recipes.clear();
+        grids.clear();
+    }
+
+    /**
+     * Finds the LightRecipe matching a crafting grid.
+     *
+     * @param matrix The crafting grid, 4 or 9 slots.
+     * @return The matching recipe, or null if none matches.
+     */
+    public LightRecipe match(ItemStack[] matrix) {
+        int width = matrix.length == 4 ? 2 : 3;
+        ItemManager itemManager = LightPlugin.getItemsManager();
+
+        Object[] cells = new Object[matrix.length];
+        for (int i = 0; i < matrix.length; i++) {
+            ItemStack item = matrix[i];
+            if(item == null || item.getType() == Material.AIR)
+                continue;
+
+            LightItem lightItem = itemManager.get(item);
+            cells[i] = lightItem != null ? lightItem.getIdentifier() : item.getType();
+        }
+
+        Grid grid = Grid.of(cells, width, matrix.length / width);
+        return grid == null ? null : grids.get(grid);
+    }
+
+    /**
+     * Checks if a recipe is registered by this engine.
+     *
+     * @param recipe The recipe to check, null is allowed.
+     * @return True if the recipe is a LightRecipe, otherwise false.
+     */
+    public boolean isLightRecipe(Recipe recipe) {
+        return recipe instanceof Keyed && recipes.containsKey(((Keyed) recipe).getKey());
+    }
+
+    /**
+     * Crafting grid trimmed to its ingredients, slots hold identifiers or materials.
+     */
+    private static class Grid {
+        private final int width;
+        private final Object[] cells;
+        private final int hash;
+
+        private Grid(int width, Object[] cells) {
+            this.width = width;
+            this.cells = cells;
+            this.hash = 31 * width + Arrays.hashCode(cells);
+        }
+
+        private static Grid of(Object[] cells, int width, int height) {
+            int minX = width, maxX = -1, minY = height, maxY = -1;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if(cells[y * width + x] == null)
+                        continue;
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+
+            if(maxX < 0)
+                return null;
+
+            int trimmedWidth = maxX - minX + 1;
+            Object[] trimmed = new Object[trimmedWidth * (maxY - minY + 1)];
+            for (int y = minY; y <= maxY; y++)
+                System.arraycopy(cells, y * width + minX, trimmed, (y - minY) * trimmedWidth, trimmedWidth);
+
+            return new Grid(trimmedWidth, trimmed);
+        }
+
+        private Grid mirror() {
+            Object[] mirrored = new Object[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                int x = i % width;
+                mirrored[i - x + (width - 1 - x)] = cells[i];
+            }
+            return new Grid(width, mirrored);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Grid))
+                return false;
+            Grid grid = (Grid) o;
+            return width == grid.width && hash == grid.hash && Arrays.equals(cells, grid.cells);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
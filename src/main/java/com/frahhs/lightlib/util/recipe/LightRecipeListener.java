@@ -0,0 +1,53 @@
+package com.frahhs.lightlib.util.recipe;
+
+import com.frahhs.lightlib.LightListener;
+import com.frahhs.lightlib.LightPlugin;
+import com.frahhs.lightlib.item.LightItem;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.inventory.CraftItemEvent;
+import org.bukkit.event.inventory.PrepareItemCraftEvent;
+
+public class LightRecipeListener extends LightListener {
+    private final LightRecipeEngine engine;
+
+    public LightRecipeListener(LightRecipeEngine engine) {
+        this.engine = engine;
+    }
+
+    @EventHandler
+    public void onPrepare(PrepareItemCraftEvent e) {
+        if(!engine.isLightRecipe(e.getRecipe()))
+            return;
+
+        // The server matched the materials only, the result is copied into the grid
+        LightRecipe recipe = engine.match(e.getInventory().getMatrix());
+        e.getInventory().setResult(recipe == null ? null : recipe.getResultStack());
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onCraft(CraftItemEvent e) {
+        if(!engine.isLightRecipe(e.getRecipe()))
+            return;
+
+        LightRecipe recipe = engine.match(e.getInventory().getMatrix());
+        if(recipe == null) {
+            e.setCancelled(true);
+            return;
+        }
+
+        LightItem result = recipe.getResult();
+
+        // Same permission as the recipe of the item itself
+        Player player = (Player) e.getWhoClicked();
+        if(!player.hasPermission(result.getCraftPermission())) {
+            player.sendMessage(messages.getMessage(player, "general.no_permissions"));
+            e.setCancelled(true);
+            return;
+        }
+
+        if(result.isUnique())
+            LightPlugin.getItemsManager().craftUnique(e, result);
+    }
+}
@@ -15,22 +15,47 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Class for saving and loading the custom shaped recipes of the LightItems.
+ * <p>
+ * The whole ShapedRecipe table is loaded in one query and kept in memory by item identifier,
+ * saves update the table and the cache together. Rows written before the identifier was
+ * used are still found by the item name.
+ */
 public class RecipeManager {
     private JavaPlugin plugin;
     private Connection connection;
+    private Map<String, SavedRecipe> recipes;
 
     public RecipeManager(JavaPlugin plugin) {
         this.plugin = plugin;
         this.connection = LightPlugin.getLightDatabase().getConnection();
     }
 
+    /**
+     * Loads all the saved recipes in the cache, replacing the cached ones.
+     *
+     * @throws SQLException If an error occurs while reading the ShapedRecipe table.
+     */
+    public void load() throws SQLException {
+        LightPlugin.getLightLogger().fine("Loading shaped recipes...");
+        Map<String, SavedRecipe> loaded = new HashMap<>();
+
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT item, pattern, ingredients FROM ShapedRecipe");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next())
+                loaded.put(rs.getString("item"), new SavedRecipe(rs.getString("pattern"), rs.getString("ingredients")));
+        }
+
+        recipes = loaded;
+        LightPlugin.getLightLogger().fine("Loaded %d shaped recipes.", loaded.size());
+    }
+
     public void saveRecipe(LightItem item, ShapedRecipe recipe) throws SQLException {
         LightPlugin.getLightLogger().fine("Saving %s shaped recipe...", item.getName());
+        ensureLoaded();
 
-        String sql = "REPLACE INTO ShapedRecipe (item, pattern, ingredients) VALUES (?, ?, ?)";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setString(1, item.getName());
-        pstmt.setString(2, String.join(";", recipe.getShape()));
+        String pattern = String.join(";", recipe.getShape());
 
         StringBuilder ingredients = new StringBuilder();
         for (Map.Entry<Character, ItemStack> entry : recipe.getIngredientMap().entrySet()) {
@@ -39,64 +64,85 @@ public class RecipeManager {
                             .append(entry.getValue().getType()).append(";");
             }
         }
+
+        String sql = "REPLACE INTO ShapedRecipe (item, pattern, ingredients) VALUES (?, ?, ?)";
+        PreparedStatement pstmt = connection.prepareStatement(sql);
+        pstmt.setString(1, item.getIdentifier());
+        pstmt.setString(2, pattern);
         pstmt.setString(3, ingredients.toString());
         pstmt.executeUpdate();
         pstmt.close();
+
+        // The row saved by name is replaced by the identifier one
+        if (!item.getName().equals(item.getIdentifier()) && recipes.containsKey(item.getName())) {
+            pstmt = connection.prepareStatement("DELETE FROM ShapedRecipe WHERE item = ?");
+            pstmt.setString(1, item.getName());
+            pstmt.executeUpdate();
+            pstmt.close();
+        }
+        connection.commit();
+
+        recipes.remove(item.getName());
+        recipes.put(item.getIdentifier(), new SavedRecipe(pattern, ingredients.toString()));
         LightPlugin.getLightLogger().fine("Saved %s shaped recipe.", item.getName());
     }
 
     public ShapedRecipe loadRecipe(LightItem item) throws SQLException {
-        LightPlugin.getLightLogger().fine("Loading %s shaped recipe...", item.getName());
+        ensureLoaded();
 
-        String sql = "SELECT * FROM ShapedRecipe WHERE item = ?";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setString(1, item.getName());
-        ResultSet rs = pstmt.executeQuery();
-        if (rs.next()) {
-            // Deserialize the pattern and ingredients
-            String[] shape = rs.getString("pattern").split(";");
-            Map<Character, ItemStack> ingredientMap = new HashMap<>();
-            String[] ingredients = rs.getString("ingredients").split(";");
-            for (String ingredient : ingredients) {
-                String[] entry = ingredient.split(":");
-                ingredientMap.put(entry[0].charAt(0), new ItemStack(Material.matchMaterial(entry[1])));
-            }
+        SavedRecipe saved = getSaved(item);
+        if (saved == null) {
+            LightPlugin.getLightLogger().fine("Custom shaped recipe for item %s not found.", item.getName());
+            return null;
+        }
 
-            // Now construct the NamespacedKey for the recipe
-            NamespacedKey key = item.getNamespacedKey();
+        // Deserialize the pattern and ingredients
+        String[] shape = saved.pattern.split(";");
+        Map<Character, ItemStack> ingredientMap = new HashMap<>();
+        String[] ingredients = saved.ingredients.split(";");
+        for (String ingredient : ingredients) {
+            String[] entry = ingredient.split(":");
+            ingredientMap.put(entry[0].charAt(0), new ItemStack(Material.matchMaterial(entry[1])));
+        }
 
-            // Create the ShapedRecipe and set its components
-            ShapedRecipe recipe = new ShapedRecipe(key, item.getItemStack());
-            recipe.shape(shape);
-            for (Map.Entry<Character, ItemStack> entry : ingredientMap.entrySet()) {
-                if (entry.getValue() != null) {
-                    recipe.setIngredient(entry.getKey(), entry.getValue().getType());
-                }
-            }
+        // Now construct the NamespacedKey for the recipe
+        NamespacedKey key = item.getNamespacedKey();
 
-            // Close resources
-            rs.close();
-            pstmt.close();
-            LightPlugin.getLightLogger().fine("Loaded %s shaped recipe.", item.getName());
-            return recipe;
+        // Create the ShapedRecipe and set its components
+        ShapedRecipe recipe = new ShapedRecipe(key, item.getTemplateStack());
+        recipe.shape(shape);
+        for (Map.Entry<Character, ItemStack> entry : ingredientMap.entrySet()) {
+            if (entry.getValue() != null) {
+                recipe.setIngredient(entry.getKey(), entry.getValue().getType());
+            }
         }
 
-        // Close resources
-        rs.close();
-        pstmt.close();
-        LightPlugin.getLightLogger().fine("Custom shaped recipe for item %s not found.", item.getName());
-        return null;
+        LightPlugin.getLightLogger().fine("Loaded %s shaped recipe.", item.getName());
+        return recipe;
     }
 
     public boolean isRecipePresent(LightItem item) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM ShapedRecipe WHERE item = ?";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setString(1, item.getName());
-        ResultSet rs = pstmt.executeQuery();
-        rs.next();
-        boolean exists = rs.getInt(1) > 0;
-        rs.close();
-        pstmt.close();
-        return exists;
+        ensureLoaded();
+        return getSaved(item) != null;
+    }
+
+    private SavedRecipe getSaved(LightItem item) {
+        SavedRecipe saved = recipes.get(item.getIdentifier());
+        return saved != null ? saved : recipes.get(item.getName());
+    }
+
+    private void ensureLoaded() throws SQLException {
+        if (recipes == null)
+            load();
+    }
+
+    private static class SavedRecipe {
+        private final String pattern;
+        private final String ingredients;
+
+        private SavedRecipe(String pattern, String ingredients) {
+            this.pattern = pattern;
+            this.ingredients = ingredients;
+        }
     }
 }
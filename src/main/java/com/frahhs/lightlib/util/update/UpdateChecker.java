@@ -1,7 +1,7 @@
 package com.frahhs.lightlib.util.update;
 
 import com.frahhs.lightlib.LightPlugin;
-import com.frahhs.lightlib.provider.ConfigProvider;
+import com.frahhs.lightlib.provider.ConfigKeys;
 import com.frahhs.lightlib.util.logging.ConsoleColor;
 import com.frahhs.lightlib.util.logging.LightLogger;
 import org.bukkit.ChatColor;
@@ -42,14 +42,14 @@ public class UpdateChecker implements Listener {
 
     @EventHandler
     public void onAdminJoin(PlayerJoinEvent event) {
-        ConfigProvider config = LightPlugin.getConfigProvider();
+        boolean updateCheck = LightPlugin.getConfigProvider().get(ConfigKeys.UPDATE_CHECK);
 
         // Check if new version is out
-        if(config.getBoolean("update-check")) {
+        if(updateCheck) {
             check();
         }
 
-        if(UpdateChecker.isAvailable && config.getBoolean("update-check")) {
+        if(UpdateChecker.isAvailable && updateCheck) {
             if(event.getPlayer().hasPermission(LightPlugin.getOptions().getPermissionPrefix() + ".admin")) {
                 String prefix = LightPlugin.getMessagesProvider().getPrefix();
                 StringBuilder builder = new StringBuilder();
@@ -70,15 +70,15 @@ public class UpdateChecker implements Listener {
 
     @EventHandler
     public void onServerLoad(ServerLoadEvent event) {
-        ConfigProvider config = LightPlugin.getConfigProvider();
+        boolean updateCheck = LightPlugin.getConfigProvider().get(ConfigKeys.UPDATE_CHECK);
 
         // Check if new version is out
-        if(config.getBoolean("update-check")) {
+        if(updateCheck) {
             check();
         }
 
         // Check if new version is out
-        if(UpdateChecker.isAvailable && config.getBoolean("update-check")) {
+        if(UpdateChecker.isAvailable && updateCheck) {
             LightLogger logger = LightPlugin.getLightLogger();
             logger.warning("=====================================================");
             logger.warning("New version of %s is out!", LightPlugin.getInstance().getDescription().getName());